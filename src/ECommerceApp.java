@@ -1,305 +1,2780 @@
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.AbstractTableModel;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
 import java.io.*;
-import java.text.DecimalFormat;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32;
+
+// ECommerceApp.java
+public class ECommerceApp {
+
+    // Models (User, Product, Order, etc.)
+    static class User implements Serializable {
+        enum Role { ADMIN, CUSTOMER }
+        private static final long serialVersionUID = 1L;
+        private final UUID id;
+        private String name;
+        private String email;
+        private String passwordHash;
+        private Role role;
+
+        public User(String name, String email, String password, Role role) {
+            this.id = UUID.randomUUID();
+            this.name = name;
+            this.email = normalizeEmail(email);
+            this.passwordHash = hash(password);
+            this.role = role;
+        }
+
+        // used by journal replay to rebuild a user exactly as it was persisted
+        User(UUID id, String name, String email, String passwordHash, Role role) {
+            this.id = id;
+            this.name = name;
+            this.email = email;
+            this.passwordHash = passwordHash;
+            this.role = role;
+        }
+
+        public UUID getId() { return id; }
+        public String getName() { return name; }
+        public String getEmail() { return email; }
+        String getPasswordHash() { return passwordHash; }
+        public Role getRole() { return role; }
+        public void setName(String n) { name = n; }
+        public void setRole(Role r) { role = r; }
+
+        public boolean checkPassword(String pw) {
+            return hash(pw).equals(passwordHash);
+        }
+
+        public void setPassword(String pw) { passwordHash = hash(pw); }
+
+        static String normalizeEmail(String email) {
+            return email.toLowerCase(Locale.ROOT);
+        }
+
+        private String hash(String s) {
+            return Integer.toString(Objects.hash(s));
+        }
+
+        @Override
+        public String toString() {
+            return name + " <" + email + "> (" + role + ")";
+        }
+    }
+
+    static class Product implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final UUID id;
+        private String name;
+        private String description;
+        private long priceCents;
+        // committed stock: what the journal and snapshots record; only changed under the DataStore write lock
+        private int stock;
+        private String category;
+        // file name inside the image directory (ImageCache.IMAGE_DIR); null shows the placeholder
+        private String image;
+        // stock minus in-flight checkout reservations; reserved lock-free with CAS
+        private transient volatile int available;
+        private static final AtomicIntegerFieldUpdater<Product> AVAILABLE =
+                AtomicIntegerFieldUpdater.newUpdater(Product.class, "available");
+        // dollars as written by builds before prices were held in cents; only ever read from an old data.ser
+        private double price;
+
+        public Product(String name, String desc, long priceCents, int stock, String category) {
+            this(UUID.randomUUID(), name, desc, priceCents, stock, category);
+        }
+
+        Product(UUID id, String name, String desc, long priceCents, int stock, String category) {
+            this.id = id;
+            this.name = name;
+            this.description = desc;
+            this.priceCents = priceCents;
+            this.stock = stock;
+            this.available = stock;
+            this.category = category;
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            if (price != 0) {
+                priceCents = Money.toCents(price);
+                price = 0;
+            }
+            available = stock;
+        }
+
+        public UUID getId() { return id; }
+        public String getName() { return name; }
+        public String getDescription() { return description; }
+        public long getPriceCents() { return priceCents; }
+        /** Units available to sell right now, i.e. net of checkouts still in progress. */
+        public int getStock() { return available; }
+        int getCommittedStock() { return stock; }
+        public String getCategory() { return category; }
+        public String getImage() { return image; }
+
+        public void setName(String n) { name = n; }
+        public void setDescription(String d) { description = d; }
+        public void setPriceCents(long c) { priceCents = c; }
+        /**
+         * Sets committed stock. Availability shifts by the same delta, so units held by carts and
+         * in-flight checkouts stay reserved; a level below what is currently reserved is refused.
+         */
+        public void setStock(int s) {
+            while (true) {
+                int cur = available;
+                int reserved = stock - cur;
+                if (s < reserved) {
+                    throw new IllegalArgumentException("Stock cannot go below the " + reserved + " units held in carts and checkouts");
+                }
+                if (AVAILABLE.compareAndSet(this, cur, cur + (s - stock))) break;
+            }
+            stock = s;
+        }
+
+        /** Takes qty units out of availability if that many are left; all-or-nothing, lock-free. */
+        boolean tryReserve(int qty) {
+            while (true) {
+                int cur = available;
+                if (cur < qty) return false;
+                if (AVAILABLE.compareAndSet(this, cur, cur - qty)) return true;
+            }
+        }
+
+        void releaseReservation(int qty) { AVAILABLE.getAndAdd(this, qty); }
+
+        // turns a successful reservation into a committed decrement; caller holds the write lock
+        void commitReservation(int qty) { stock -= qty; }
+        public void setCategory(String c) { category = c; }
+        public void setImage(String i) { image = i == null || i.trim().isEmpty() ? null : i.trim(); }
+    }
+
+    static class Order implements Serializable {
+        private static final long serialVersionUID = 1L;
+        enum Status { PENDING, SHIPPED, DELIVERED, CANCELLED }
+        private final UUID id;
+        private final UUID userId;
+        private final LocalDateTime createdAt;
+        private final List<OrderItem> items;
+        private Status status;
+        private long totalCents;
+        // pre-cents data.ser only, see Product.price
+        private double total;
+
+        public Order(UUID userId, List<OrderItem> items) {
+            this.id = UUID.randomUUID();
+            this.userId = userId;
+            this.createdAt = LocalDateTime.now();
+            this.items = new ArrayList<>(items);
+            long sum = 0;
+            for (OrderItem i : items) sum = Math.addExact(sum, Money.times(i.priceCents, i.quantity));
+            this.totalCents = sum;
+            this.status = Status.PENDING;
+        }
+
+        // used by journal replay
+        Order(UUID id, UUID userId, LocalDateTime createdAt, List<OrderItem> items, Status status, long totalCents) {
+            this.id = id;
+            this.userId = userId;
+            this.createdAt = createdAt;
+            this.items = new ArrayList<>(items);
+            this.status = status;
+            this.totalCents = totalCents;
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            if (total != 0) {
+                totalCents = Money.toCents(total);
+                total = 0;
+            }
+        }
+
+        public UUID getId() { return id; }
+        public UUID getUserId() { return userId; }
+        public LocalDateTime getCreatedAt() { return createdAt; }
+        public List<OrderItem> getItems() { return items; }
+        public Status getStatus() { return status; }
+        public void setStatus(Status s) { status = s; }
+        public long getTotalCents() { return totalCents; }
+    }
+
+    static class OrderItem implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final UUID productId;
+        final String productName;
+        final int quantity;
+        long priceCents;
+        // pre-cents data.ser only, see Product.price
+        private double price;
+
+        public OrderItem(UUID productId, String productName, int qty, long priceCents) {
+            this.productId = productId;
+            this.productName = productName;
+            this.quantity = qty;
+            this.priceCents = priceCents;
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            if (price != 0) {
+                priceCents = Money.toCents(price);
+                price = 0;
+            }
+        }
+    }
+
+    // -------------------------------
+    // Repository / DataStore (persistence)
+    // -------------------------------
+
+    static class Repository implements Serializable {
+        private static final long serialVersionUID = 1L;
+        List<User> users = new ArrayList<>();
+        List<Product> products = new ArrayList<>();
+        List<Order> orders = new ArrayList<>();
+        // sequence number of the last journal record folded into this snapshot
+        long journalSeq;
+    }
+
+    static class DataStore {
+        private static final String DATA_FILE = "data.bin";
+        // pre-binary Java-serialized snapshot, migrated once on first start
+        private static final String LEGACY_FILE = "data.ser";
+        private static final String JOURNAL_FILE = "data.journal";
+        // journal records appended before the next full snapshot is taken
+        private static final int SNAPSHOT_EVERY = Integer.getInteger("shop.snapshotEvery", 1000);
+        // group commit: the writer flushes at most once per window, or sooner once a batch fills up
+        private static final long FLUSH_WINDOW_MS = Long.getLong("shop.flushWindowMs", 50);
+        private static final int FLUSH_BATCH = Integer.getInteger("shop.flushBatch", 256);
+        // after a failed disk write the queued records are retried no sooner than this
+        private static final long RETRY_MS = 1000;
+        private static DataStore instance;
+        Repository repo;
+        private final boolean journaled = !"false".equalsIgnoreCase(System.getProperty("shop.journal"));
+        private Journal journal;
+        // guards repo and every index below; not reentrant, so DataStore methods never take it themselves
+        private final StampedLock lock = new StampedLock();
+        private final Map<UUID, Product> productsById = new HashMap<>();
+        private final Map<UUID, Order> ordersById = new HashMap<>();
+        private final Map<String, User> usersByEmail = new HashMap<>();
+        private final SearchIndex searchIndex = new SearchIndex();
+        private final FuzzyIndex fuzzyIndex = new FuzzyIndex();
+        private final CategoryIndex categoryIndex = new CategoryIndex();
+        private final SortedIndex priceIndex = new SortedIndex(Product::getPriceCents);
+        private final SortedIndex stockIndex = new SortedIndex(Product::getStock);
+        // each user's orders, oldest first
+        private final Map<UUID, List<Order>> ordersByUser = new HashMap<>();
+
+        // queued writes, guarded by this; ioLock serializes the actual disk writes
+        private final Object ioLock = new Object();
+        private List<byte[]> pending = new ArrayList<>();
+        private byte[] pendingSnapshot;
+        private CompletableFuture<Void> pendingFlush = new CompletableFuture<>();
+        private CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+        private int sinceSnapshot;
+        private long retryAt;
+
+        private DataStore() {
+            repo = load();
+            if (repo == null) {
+                repo = new Repository();
+                seedDefaultData(repo);
+                rebuildIndexes();
+                new File(JOURNAL_FILE).delete(); // a journal without its snapshot cannot be replayed
+                save();
+            }
+            if (journaled) openJournal();
+
+            Thread writer = new Thread(this::writerLoop, "datastore-writer");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flushNow, "datastore-flush"));
+        }
+
+        public static synchronized DataStore getInstance() {
+            if (instance == null) instance = new DataStore();
+            return instance;
+        }
+
+        /**
+         * The stored repository, or null if there is none yet. Files that exist but can't be read (a
+         * newer format, corruption) fail startup instead: seeding over them would destroy the only copy.
+         */
+        private Repository load() {
+            Repository r;
+            boolean migrated = false;
+            File bin = new File(DATA_FILE);
+            try {
+                if (bin.exists()) {
+                    r = Snapshot.read(bin);
+                } else {
+                    r = loadLegacy();
+                    if (r == null) return null;
+                    migrated = true;
+                }
+            } catch (Exception e) {
+                throw unreadable(bin.exists() ? DATA_FILE : LEGACY_FILE, e);
+            }
+            repo = r;
+            rebuildIndexes();
+            if (journaled) {
+                try {
+                    r.journalSeq = Journal.replay(new File(JOURNAL_FILE), r.journalSeq, this::replayRecord);
+                } catch (IOException | RuntimeException e) {
+                    throw unreadable(JOURNAL_FILE, e);
+                }
+            }
+            if (migrated) {
+                save();
+                new File(LEGACY_FILE).renameTo(new File(LEGACY_FILE + ".migrated"));
+            }
+            return r;
+        }
+
+        private Repository loadLegacy() throws IOException, ClassNotFoundException {
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(LEGACY_FILE))) {
+                return (Repository) ois.readObject();
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+        }
+
+        private static IllegalStateException unreadable(String file, Exception cause) {
+            return new IllegalStateException("Could not read " + new File(file).getAbsolutePath() + " (" + cause
+                    + "). The data files were left untouched; restore or move them aside to start.", cause);
+        }
+
+        private void openJournal() {
+            try {
+                journal = new Journal(new File(JOURNAL_FILE), repo.journalSeq);
+            } catch (IOException e) {
+                e.printStackTrace();
+                journal = null;
+            }
+        }
+
+        // ---- locking: controllers wrap every access to repo and the indexes in read() or write() ----
+
+        /** Runs a read-only query under the read lock; anything that walks a collection or index goes here. */
+        <T> T read(Supplier<T> query) {
+            long stamp = lock.readLock();
+            try {
+                return query.get();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Runs an O(1) read (a map lookup, a size) as an optimistic read with no lock taken; if a
+         * writer got in meanwhile, or the read tripped over a half-applied change, it is re-run under
+         * the read lock. Never pass a traversal: racing a rebalance it may not finish at all.
+         */
+        <T> T peek(Supplier<T> query) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    T result = query.get();
+                    if (lock.validate(stamp)) return result;
+                } catch (RuntimeException raced) {
+                    if (lock.validate(stamp)) throw raced;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return query.get();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        <T> T write(Supplier<T> mutation) {
+            long stamp = lock.writeLock();
+            try {
+                return mutation.get();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void write(Runnable mutation) {
+            write(() -> {
+                mutation.run();
+                return null;
+            });
+        }
+
+        // ---- in-memory indexes over repo's lists; mutate through these so they stay in sync ----
+
+        private void rebuildIndexes() {
+            usersByEmail.clear();
+            for (User u : repo.users) usersByEmail.put(User.normalizeEmail(u.getEmail()), u);
+            productsById.clear();
+            searchIndex.clear();
+            fuzzyIndex.clear();
+            categoryIndex.clear();
+            priceIndex.clear();
+            stockIndex.clear();
+            for (Product p : repo.products) {
+                productsById.put(p.getId(), p);
+                searchIndex.add(p);
+                fuzzyIndex.add(p);
+                categoryIndex.add(p);
+                priceIndex.add(p);
+                stockIndex.add(p);
+            }
+            ordersById.clear();
+            ordersByUser.clear();
+            for (Order o : repo.orders) {
+                ordersById.put(o.getId(), o);
+                ordersByUser.computeIfAbsent(o.getUserId(), k -> new ArrayList<>()).add(o);
+            }
+            for (List<Order> list : ordersByUser.values()) list.sort(Comparator.comparing(Order::getCreatedAt));
+        }
+
+        Product product(UUID id) { return productsById.get(id); }
+        Order order(UUID id) { return ordersById.get(id); }
+        List<Order> ordersOf(UUID userId) { return ordersByUser.getOrDefault(userId, Collections.emptyList()); }
+        User userByEmail(String email) { return email == null ? null : usersByEmail.get(User.normalizeEmail(email)); }
+        /** Ranked full-text matches, or null when the query has no searchable terms. */
+        List<Product> searchProducts(String query) { return searchIndex.search(query); }
+        List<Product> fuzzySearchProducts(String query) { return fuzzyIndex.search(query); }
+        Collection<Product> productsInCategory(String category) { return categoryIndex.members(category); }
+        Map<String, Integer> categoryCounts() { return categoryIndex.counts(); }
+        SortedIndex priceIndex() { return priceIndex; }
+        SortedIndex stockIndex() { return stockIndex; }
+
+        void addUser(User u) {
+            repo.users.add(u);
+            usersByEmail.put(User.normalizeEmail(u.getEmail()), u);
+        }
+
+        void addProduct(Product p) {
+            repo.products.add(p);
+            productsById.put(p.getId(), p);
+            searchIndex.add(p);
+            fuzzyIndex.add(p);
+            categoryIndex.add(p);
+            priceIndex.add(p);
+            stockIndex.add(p);
+        }
+
+        /** Call after changing a product's fields so the secondary indexes follow. */
+        void productUpdated(Product p) {
+            searchIndex.update(p);
+            fuzzyIndex.update(p);
+            categoryIndex.update(p);
+            priceIndex.update(p);
+            stockIndex.update(p);
+        }
+
+        /** Cheaper variant of productUpdated for when only the stock level moved. */
+        void stockChanged(Product p) {
+            stockIndex.update(p);
+        }
+
+        /** Re-files products in the stock index after cart holds moved their availability; takes the write lock itself. */
+        void availabilityChanged(Collection<Product> products) {
+            write(() -> {
+                for (Product p : products) {
+                    if (productsById.get(p.getId()) == p) stockIndex.update(p); // a removed product stays out
+                }
+            });
+        }
+
+        boolean removeProduct(UUID id) {
+            Product p = productsById.remove(id);
+            if (p == null) return false;
+            repo.products.remove(p);
+            searchIndex.remove(p);
+            fuzzyIndex.remove(p);
+            categoryIndex.remove(p);
+            priceIndex.remove(p);
+            stockIndex.remove(p);
+            return true;
+        }
+
+        void addOrder(Order o) {
+            repo.orders.add(o);
+            ordersById.put(o.getId(), o);
+            List<Order> history = ordersByUser.computeIfAbsent(o.getUserId(), k -> new ArrayList<>());
+            int i = history.size();
+            // orders normally arrive in time order; walk back only if the clock stepped backwards
+            while (i > 0 && history.get(i - 1).getCreatedAt().isAfter(o.getCreatedAt())) i--;
+            history.add(i, o);
+        }
+
+        private void replayRecord(byte type, DataInputStream in) throws IOException {
+            switch (type) {
+                case Journal.USER_REGISTERED:
+                    addUser(Journal.readUser(in));
+                    break;
+                case Journal.PRODUCT_ADDED_DOLLARS:
+                case Journal.PRODUCT_ADDED:
+                    addProduct(Journal.readProduct(in, type == Journal.PRODUCT_ADDED));
+                    break;
+                case Journal.PRODUCT_UPDATED_DOLLARS:
+                case Journal.PRODUCT_UPDATED: {
+                    Product p = Journal.readProduct(in, type == Journal.PRODUCT_UPDATED);
+                    Product existing = product(p.getId());
+                    if (existing != null) {
+                        existing.setName(p.getName());
+                        existing.setDescription(p.getDescription());
+                        existing.setPriceCents(p.getPriceCents());
+                        existing.setStock(p.getStock());
+                        existing.setCategory(p.getCategory());
+                        existing.setImage(p.getImage());
+                        productUpdated(existing);
+                    }
+                    break;
+                }
+                case Journal.PRODUCT_REMOVED:
+                    removeProduct(Journal.readUuid(in));
+                    break;
+                case Journal.ORDER_PLACED_DOLLARS:
+                case Journal.ORDER_PLACED: {
+                    Order o = Journal.readOrder(in, type == Journal.ORDER_PLACED);
+                    for (OrderItem it : o.getItems()) {
+                        Product p = product(it.productId);
+                        if (p != null) {
+                            p.setStock(p.getCommittedStock() - it.quantity);
+                            stockChanged(p);
+                        }
+                    }
+                    addOrder(o);
+                    break;
+                }
+                case Journal.ORDER_STATUS: {
+                    Order o = order(Journal.readUuid(in));
+                    Order.Status status = Order.Status.values()[in.readByte()];
+                    if (o != null) o.setStatus(status);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown journal record type: " + type);
+            }
+        }
+
+        /** Writes a full snapshot of the repository and truncates the journal, blocking until done. */
+        public void save() {
+            synchronized (this) {
+                requestSnapshot();
+            }
+            flushNow();
+        }
+
+        // ---- journaled mutations: callers change the model first, then log it here ----
+        // Each returns a future that completes once the change is on disk.
+
+        public CompletableFuture<Void> logUserRegistered(User u) {
+            return append(Journal.USER_REGISTERED, out -> Journal.writeUser(out, u));
+        }
+
+        public CompletableFuture<Void> logProductAdded(Product p) {
+            return append(Journal.PRODUCT_ADDED, out -> Journal.writeProduct(out, p));
+        }
+
+        public CompletableFuture<Void> logProductUpdated(Product p) {
+            return append(Journal.PRODUCT_UPDATED, out -> Journal.writeProduct(out, p));
+        }
+
+        public CompletableFuture<Void> logProductRemoved(UUID id) {
+            return append(Journal.PRODUCT_REMOVED, out -> Journal.writeUuid(out, id));
+        }
+
+        public CompletableFuture<Void> logOrderPlaced(Order o) {
+            return append(Journal.ORDER_PLACED, out -> Journal.writeOrder(out, o));
+        }
+
+        /** Logs a whole batch of orders with a single snapshot-threshold check and group commit. */
+        public synchronized CompletableFuture<Void> logOrdersPlaced(List<Order> orders) {
+            if (orders.isEmpty()) return whenDurable();
+            if (journal == null) return requestSnapshot();
+            try {
+                for (Order o : orders) pending.add(journal.encode(Journal.ORDER_PLACED, out -> Journal.writeOrder(out, o)));
+                repo.journalSeq = journal.lastSeq();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return requestSnapshot();
+            }
+            sinceSnapshot += orders.size();
+            if (sinceSnapshot >= SNAPSHOT_EVERY) return requestSnapshot();
+            notifyAll();
+            return pendingFlush;
+        }
+
+        public CompletableFuture<Void> logOrderStatus(UUID orderId, Order.Status status) {
+            return append(Journal.ORDER_STATUS, out -> {
+                Journal.writeUuid(out, orderId);
+                out.writeByte(status.ordinal());
+            });
+        }
+
+        /** Future for everything logged so far; completes with the next group commit. */
+        public synchronized CompletableFuture<Void> whenDurable() {
+            return pending.isEmpty() && pendingSnapshot == null ? inFlight : pendingFlush;
+        }
+
+        private synchronized CompletableFuture<Void> append(byte type, Journal.RecordWriter body) {
+            if (journal == null) return requestSnapshot();
+            try {
+                pending.add(journal.encode(type, body));
+                repo.journalSeq = journal.lastSeq();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return requestSnapshot();
+            }
+            if (++sinceSnapshot >= SNAPSHOT_EVERY) return requestSnapshot();
+            notifyAll();
+            return pendingFlush;
+        }
+
+        // the snapshot is encoded here, on the mutating thread, so it is consistent with the records
+        // queued before it; only the disk write is deferred to the writer
+        private CompletableFuture<Void> requestSnapshot() {
+            sinceSnapshot = 0;
+            // a newer snapshot covers every record and older snapshot still queued
+            pending.clear();
+            pendingSnapshot = Snapshot.encode(repo);
+            notifyAll();
+            return pendingFlush;
+        }
+
+        private void writerLoop() {
+            try {
+                while (true) {
+                    synchronized (this) {
+                        while (pending.isEmpty() && pendingSnapshot == null) wait();
+                        long deadline = Math.max(System.currentTimeMillis() + FLUSH_WINDOW_MS, retryAt);
+                        long left;
+                        while ((pending.size() < FLUSH_BATCH || System.currentTimeMillis() < retryAt)
+                                && (left = deadline - System.currentTimeMillis()) > 0) wait(left);
+                    }
+                    flushNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Writes everything queued so far on the calling thread and fsyncs it; used for shutdown and
+         * explicit saves. If the disk write fails, that flush's future fails, and its snapshot and records
+         * go back to the front of the queue to be retried, so nothing already applied in memory goes missing.
+         */
+        public void flushNow() {
+            synchronized (ioLock) {
+                List<byte[]> records;
+                byte[] snapshot;
+                CompletableFuture<Void> done;
+                synchronized (this) {
+                    if (pending.isEmpty() && pendingSnapshot == null) return;
+                    records = pending;
+                    snapshot = pendingSnapshot;
+                    done = pendingFlush;
+                    inFlight = done;
+                    pending = new ArrayList<>();
+                    pendingSnapshot = null;
+                    pendingFlush = new CompletableFuture<>();
+                }
+                try {
+                    if (snapshot != null) writeSnapshot(snapshot);
+                    if (journal != null && !records.isEmpty()) {
+                        for (byte[] rec : records) journal.write(rec);
+                        journal.sync();
+                    }
+                    done.complete(null);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    requeue(snapshot, records);
+                    done.completeExceptionally(e);
+                }
+            }
+        }
+
+        // puts a failed flush back ahead of whatever was queued since; a newer snapshot already covers it
+        private void requeue(byte[] snapshot, List<byte[]> records) {
+            if (journal != null) {
+                try {
+                    journal.rollback(); // drop any partly written records so the retry is not stranded behind them
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            synchronized (this) {
+                if (pendingSnapshot == null) {
+                    pendingSnapshot = snapshot;
+                    records.addAll(pending);
+                    pending = records;
+                }
+                retryAt = System.currentTimeMillis() + RETRY_MS;
+                notifyAll();
+            }
+        }
+
+        // the temp file is synced before the rename and the rename before the journal is cut, so a
+        // power loss at any point leaves either the old snapshot plus journal or the new snapshot
+        private void writeSnapshot(byte[] snapshot) throws IOException {
+            File tmp = new File(DATA_FILE + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(snapshot);
+                while (buf.hasRemaining()) ch.write(buf);
+                ch.force(true);
+            }
+            File target = new File(DATA_FILE).getAbsoluteFile();
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(target.getParentFile());
+            if (journal != null) journal.truncate();
+        }
+
+        private static void syncDirectory(File dir) {
+            try (FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+                ch.force(true);
+            } catch (IOException e) {
+                // Windows cannot open a directory; NTFS journals the rename itself
+            }
+        }
+
+        private void seedDefaultData(Repository r) {
+            User admin = new User("Admin", "admin@shop.com", "admin123", User.Role.ADMIN);
+            User c1 = new User("Ali", "ali@example.com", "pass", User.Role.CUSTOMER);
+            r.users.add(admin);
+            r.users.add(c1);
+
+            r.products.add(new Product("Chocolate Cake", "Delicious dark chocolate cake (8 inch)", 2500, 15, "Cakes"));
+            r.products.add(new Product("Vanilla Cupcakes (6)", "Soft vanilla cupcakes (pack of 6)", 1000, 40, "Cupcakes"));
+            r.products.add(new Product("Strawberry Tart", "Fresh strawberry tart", 1800, 10, "Tarts"));
+            r.products.add(new Product("Red Velvet Slice", "Single slice of red velvet cake", 600, 30, "Slices"));
+            r.products.add(new Product("Lemon Cheesecake", "Creamy lemon cheesecake", 2200, 8, "Cakes"));
+            r.products.add(new Product("Tiramisu", "Classic Italian coffee-flavored dessert", 2800, 12, "Cakes"));
+            r.products.add(new Product("Macarons (12)", "Assorted French macarons", 1500, 25, "Pastries"));
+            r.products.add(new Product("Carrot Cake", "Moist carrot cake with cream cheese frosting", 2000, 18, "Cakes"));
+        }
+    }
+
+    /**
+     * Snapshot: versioned binary image of the repository.
+     * Layout: magic, version, journalSeq, then the user, product and order sections, each a count
+     * followed by that many records; strings are int-length-prefixed UTF-8 and UUIDs two longs.
+     * Version 2 added the product image name; version 1 files are still read.
+     * The file is read into a heap buffer in one go and decoded from there. It is never memory-mapped:
+     * a live mapping would block the rename of the next snapshot over it on Windows.
+     */
+    static class Snapshot {
+        static final int MAGIC = 0x53534E50; // "SSNP"
+        // 2 added product images, 3 stores prices and totals as cents
+        static final int VERSION = 3;
+
+        static byte[] encode(Repository r) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(1 << 16);
+            try {
+                write(r, buf);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // in-memory stream
+            }
+            return buf.toByteArray();
+        }
+
+        static void write(Repository r, OutputStream os) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(r.journalSeq);
+
+                out.writeInt(r.users.size());
+                for (User u : r.users) {
+                    writeUuid(out, u.getId());
+                    writeStr(out, u.getName());
+                    writeStr(out, u.getEmail());
+                    writeStr(out, u.getPasswordHash());
+                    out.writeByte(u.getRole().ordinal());
+                }
+
+                out.writeInt(r.products.size());
+                for (Product p : r.products) {
+                    writeUuid(out, p.getId());
+                    writeStr(out, p.getName());
+                    writeStr(out, p.getDescription());
+                    out.writeLong(p.getPriceCents());
+                    out.writeInt(p.getCommittedStock());
+                    writeStr(out, p.getCategory());
+                    writeStr(out, p.getImage());
+                }
+
+                out.writeInt(r.orders.size());
+                for (Order o : r.orders) {
+                    writeUuid(out, o.getId());
+                    writeUuid(out, o.getUserId());
+                    out.writeLong(o.getCreatedAt().toEpochSecond(ZoneOffset.UTC));
+                    out.writeInt(o.getCreatedAt().getNano());
+                    out.writeByte(o.getStatus().ordinal());
+                    out.writeLong(o.getTotalCents());
+                    out.writeInt(o.getItems().size());
+                    for (OrderItem it : o.getItems()) {
+                        writeUuid(out, it.productId);
+                        writeStr(out, it.productName);
+                        out.writeInt(it.quantity);
+                        out.writeLong(it.priceCents);
+                    }
+                }
+            }
+        }
+
+        static Repository read(File file) throws IOException {
+            ByteBuffer buf;
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = ch.size();
+                if (size > Integer.MAX_VALUE - 8) throw new IOException("Snapshot too large: " + file);
+                buf = ByteBuffer.allocate((int) size);
+                while (buf.hasRemaining() && ch.read(buf) >= 0) { }
+                buf.flip();
+            }
+            if (buf.remaining() < 16 || buf.getInt() != MAGIC) throw new IOException("Not a snapshot file: " + file);
+            int version = buf.getInt();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported snapshot version " + version);
+
+            boolean cents = version >= 3;
+            Repository r = new Repository();
+            r.journalSeq = buf.getLong();
+
+            int users = buf.getInt();
+            r.users = new ArrayList<>(users);
+            for (int i = 0; i < users; i++) {
+                r.users.add(new User(readUuid(buf), readStr(buf), readStr(buf), readStr(buf), User.Role.values()[buf.get()]));
+            }
+
+            int products = buf.getInt();
+            r.products = new ArrayList<>(products);
+            for (int i = 0; i < products; i++) {
+                Product p = new Product(readUuid(buf), readStr(buf), readStr(buf), readPrice(buf, cents), buf.getInt(), readStr(buf));
+                if (version >= 2) p.setImage(readStr(buf));
+                r.products.add(p);
+            }
+
+            int orders = buf.getInt();
+            r.orders = new ArrayList<>(orders);
+            for (int i = 0; i < orders; i++) {
+                UUID id = readUuid(buf);
+                UUID userId = readUuid(buf);
+                LocalDateTime createdAt = LocalDateTime.ofEpochSecond(buf.getLong(), buf.getInt(), ZoneOffset.UTC);
+                Order.Status status = Order.Status.values()[buf.get()];
+                long total = readPrice(buf, cents);
+                int n = buf.getInt();
+                List<OrderItem> items = new ArrayList<>(n);
+                for (int j = 0; j < n; j++) {
+                    items.add(new OrderItem(readUuid(buf), readStr(buf), buf.getInt(), readPrice(buf, cents)));
+                }
+                r.orders.add(new Order(id, userId, createdAt, items, status, total));
+            }
+            return r;
+        }
+
+        private static void writeUuid(DataOutputStream out, UUID id) throws IOException {
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+        }
+
+        private static UUID readUuid(ByteBuffer buf) {
+            return new UUID(buf.getLong(), buf.getLong());
+        }
+
+        // versions 1 and 2 held dollars as doubles
+        private static long readPrice(ByteBuffer buf, boolean cents) {
+            return cents ? buf.getLong() : Money.toCents(buf.getDouble());
+        }
+
+        private static void writeStr(DataOutputStream out, String s) throws IOException {
+            byte[] b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        private static String readStr(ByteBuffer buf) {
+            int len = buf.getInt();
+            String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+            buf.position(buf.position() + len);
+            return s;
+        }
+    }
+
+    /**
+     * Journal: append-only log of repository mutations.
+     * Each record is [int length][int crc32][long seq][byte type][fields...]; a torn or corrupt
+     * tail record (e.g. after a crash mid-write) ends replay.
+     * Prices are longs in cents; the dollar-double record types 2, 3 and 5 from older builds are
+     * still replayed but no longer written.
+     */
+    static class Journal {
+        static final byte USER_REGISTERED = 1;
+        static final byte PRODUCT_ADDED_DOLLARS = 2;
+        static final byte PRODUCT_UPDATED_DOLLARS = 3;
+        static final byte PRODUCT_REMOVED = 4;
+        static final byte ORDER_PLACED_DOLLARS = 5;
+        static final byte ORDER_STATUS = 6;
+        static final byte PRODUCT_ADDED = 7;
+        static final byte PRODUCT_UPDATED = 8;
+        static final byte ORDER_PLACED = 9;
+
+        interface RecordWriter { void write(DataOutputStream out) throws IOException; }
+
+        private final File file;
+        private FileOutputStream fos;
+        private DataOutputStream out;
+        private long seq;
+        // file length as of the last successful sync
+        private long synced;
+
+        Journal(File file, long lastSeq) throws IOException {
+            this.file = file;
+            this.seq = lastSeq;
+            open(true);
+        }
+
+        private void open(boolean append) throws IOException {
+            fos = new FileOutputStream(file, append);
+            out = new DataOutputStream(new BufferedOutputStream(fos));
+            synced = fos.getChannel().size();
+        }
+
+        long lastSeq() { return seq; }
+
+        /** Encodes the next record (seq, type, fields) without writing it. */
+        byte[] encode(byte type, RecordWriter body) throws IOException {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(128);
+            DataOutputStream rec = new DataOutputStream(buf);
+            rec.writeLong(seq + 1);
+            rec.writeByte(type);
+            body.write(rec);
+            rec.flush();
+            seq++;
+            return buf.toByteArray();
+        }
+
+        void write(byte[] bytes) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            out.writeInt(bytes.length);
+            out.writeInt((int) crc.getValue());
+            out.write(bytes);
+        }
+
+        /** Flushes buffered records and fsyncs them; when this returns they survive a power loss. */
+        void sync() throws IOException {
+            out.flush();
+            fos.getFD().sync();
+            synced = fos.getChannel().size();
+        }
+
+        void truncate() throws IOException {
+            out.close();
+            open(false);
+        }
+
+        /** Discards whatever was written since the last sync, e.g. half a record from a failed write. */
+        void rollback() throws IOException {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // the buffered bytes are being thrown away anyway
+            }
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                if (ch.size() > synced) ch.truncate(synced);
+            }
+            open(true);
+        }
+
+        interface RecordReader { void apply(byte type, DataInputStream in) throws IOException; }
+
+        /**
+         * Feeds every record newer than {@code lastSeq} to the reader and returns the last applied seq.
+         * A torn or corrupt tail is cut off the file, so records appended after this start are not
+         * stranded behind it on the next replay.
+         */
+        static long replay(File file, long lastSeq, RecordReader reader) throws IOException {
+            long last = lastSeq;
+            if (!file.exists()) return last;
+            long size = file.length();
+            long good = 0; // end of the last intact record
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    byte[] bytes;
+                    try {
+                        int len = in.readInt();
+                        int crc = in.readInt();
+                        if (len <= 0 || len > size - good - 8) break;
+                        bytes = new byte[len];
+                        in.readFully(bytes);
+                        CRC32 check = new CRC32();
+                        check.update(bytes);
+                        if ((int) check.getValue() != crc) break;
+                    } catch (EOFException eof) {
+                        break;
+                    }
+                    DataInputStream rec = new DataInputStream(new ByteArrayInputStream(bytes));
+                    long seq = rec.readLong();
+                    byte type = rec.readByte();
+                    good += 8 + bytes.length;
+                    if (seq <= last) continue;
+                    reader.apply(type, rec);
+                    last = seq;
+                }
+            }
+            if (good < size) {
+                System.err.println("Journal: dropping " + (size - good) + " bytes of torn or corrupt tail from " + file);
+                try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    ch.truncate(good);
+                }
+            }
+            return last;
+        }
+
+        static void writeUuid(DataOutputStream out, UUID id) throws IOException {
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+        }
+
+        static UUID readUuid(DataInputStream in) throws IOException {
+            return new UUID(in.readLong(), in.readLong());
+        }
+
+        private static void writeStr(DataOutputStream out, String s) throws IOException {
+            out.writeUTF(s == null ? "" : s);
+        }
+
+        static void writeUser(DataOutputStream out, User u) throws IOException {
+            writeUuid(out, u.getId());
+            writeStr(out, u.getName());
+            writeStr(out, u.getEmail());
+            writeStr(out, u.getPasswordHash());
+            out.writeByte(u.getRole().ordinal());
+        }
+
+        static User readUser(DataInputStream in) throws IOException {
+            return new User(readUuid(in), in.readUTF(), in.readUTF(), in.readUTF(), User.Role.values()[in.readByte()]);
+        }
+
+        static void writeProduct(DataOutputStream out, Product p) throws IOException {
+            writeUuid(out, p.getId());
+            writeStr(out, p.getName());
+            writeStr(out, p.getDescription());
+            out.writeLong(p.getPriceCents());
+            out.writeInt(p.getCommittedStock());
+            writeStr(out, p.getCategory());
+            writeStr(out, p.getImage());
+        }
+
+        // records written before product images end after the category
+        static Product readProduct(DataInputStream in, boolean cents) throws IOException {
+            Product p = new Product(readUuid(in), in.readUTF(), in.readUTF(), readPrice(in, cents), in.readInt(), in.readUTF());
+            if (in.available() > 0) p.setImage(in.readUTF());
+            return p;
+        }
+
+        static void writeOrder(DataOutputStream out, Order o) throws IOException {
+            writeUuid(out, o.getId());
+            writeUuid(out, o.getUserId());
+            out.writeLong(o.getCreatedAt().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(o.getCreatedAt().getNano());
+            out.writeByte(o.getStatus().ordinal());
+            out.writeLong(o.getTotalCents());
+            out.writeInt(o.getItems().size());
+            for (OrderItem it : o.getItems()) {
+                writeUuid(out, it.productId);
+                writeStr(out, it.productName);
+                out.writeInt(it.quantity);
+                out.writeLong(it.priceCents);
+            }
+        }
+
+        static Order readOrder(DataInputStream in, boolean cents) throws IOException {
+            UUID id = readUuid(in);
+            UUID userId = readUuid(in);
+            LocalDateTime createdAt = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            Order.Status status = Order.Status.values()[in.readByte()];
+            long total = readPrice(in, cents);
+            int n = in.readInt();
+            List<OrderItem> items = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                items.add(new OrderItem(readUuid(in), in.readUTF(), in.readInt(), readPrice(in, cents)));
+            }
+            return new Order(id, userId, createdAt, items, status, total);
+        }
+
+        private static long readPrice(DataInputStream in, boolean cents) throws IOException {
+            return cents ? in.readLong() : Money.toCents(in.readDouble());
+        }
+    }
+
+    /**
+     * SearchIndex: inverted index over product name, category and description.
+     * Terms are lowercase letter/digit runs held in a sorted dictionary, so a prefix query is a
+     * range scan. Each posting carries a bitmask of the fields the term occurs in; the mask doubles
+     * as the ranking weight, so a name hit always outranks category and description hits.
+     */
+    static class SearchIndex {
+        static final int DESCRIPTION = 1;
+        static final int CATEGORY = 2;
+        static final int NAME = 4;
+
+        private final NavigableMap<String, Map<Product, Integer>> terms = new TreeMap<>();
+        // terms (with field masks) each product was indexed under, for retraction and candidate probing
+        private final Map<Product, Map<String, Integer>> indexed = new HashMap<>();
+
+        void clear() {
+            terms.clear();
+            indexed.clear();
+        }
+
+        void add(Product p) {
+            Map<String, Integer> fields = new HashMap<>();
+            tokenize(p.getName(), NAME, fields);
+            tokenize(p.getCategory(), CATEGORY, fields);
+            tokenize(p.getDescription(), DESCRIPTION, fields);
+            for (Map.Entry<String, Integer> e : fields.entrySet()) {
+                terms.computeIfAbsent(e.getKey(), k -> new HashMap<>()).put(p, e.getValue());
+            }
+            indexed.put(p, fields);
+        }
+
+        void remove(Product p) {
+            Map<String, Integer> old = indexed.remove(p);
+            if (old == null) return;
+            for (String t : old.keySet()) {
+                Map<Product, Integer> postings = terms.get(t);
+                if (postings == null) continue;
+                postings.remove(p);
+                if (postings.isEmpty()) terms.remove(t);
+            }
+        }
+
+        void update(Product p) {
+            remove(p);
+            add(p);
+        }
+
+        /** Products matching every query term as a prefix, best first; null if the query has no terms. */
+        List<Product> search(String query) {
+            Map<String, Integer> qterms = new LinkedHashMap<>();
+            tokenize(query, 0, qterms);
+            if (qterms.isEmpty()) return null;
+
+            // most selective term first; once the candidate set is smaller than a term's postings,
+            // probe each candidate's own terms instead of walking the postings
+            List<String> order = new ArrayList<>(qterms.keySet());
+            Map<String, Integer> cost = new HashMap<>();
+            for (String t : order) {
+                int c = 0;
+                for (Map<Product, Integer> postings : prefixRange(t).values()) c += postings.size();
+                cost.put(t, c);
+            }
+            order.sort(Comparator.comparingInt(cost::get));
+
+            Map<Product, Integer> scores = null;
+            for (String t : order) {
+                if (scores == null) {
+                    scores = new HashMap<>();
+                    for (Map<Product, Integer> postings : prefixRange(t).values()) {
+                        for (Map.Entry<Product, Integer> e : postings.entrySet()) scores.merge(e.getKey(), e.getValue(), Math::max);
+                    }
+                } else {
+                    Iterator<Map.Entry<Product, Integer>> it = scores.entrySet().iterator();
+                    while (it.hasNext()) {
+                        Map.Entry<Product, Integer> e = it.next();
+                        int s = 0;
+                        for (Map.Entry<String, Integer> pt : indexed.get(e.getKey()).entrySet()) {
+                            if (pt.getKey().startsWith(t)) s = Math.max(s, pt.getValue());
+                        }
+                        if (s == 0) it.remove();
+                        else e.setValue(e.getValue() + s);
+                    }
+                }
+                if (scores.isEmpty()) return new ArrayList<>();
+            }
+
+            List<Map.Entry<Product, Integer>> ranked = new ArrayList<>(scores.entrySet());
+            ranked.sort((a, b) -> a.getValue().equals(b.getValue())
+                    ? a.getKey().getName().compareToIgnoreCase(b.getKey().getName())
+                    : b.getValue() - a.getValue());
+            List<Product> out = new ArrayList<>(ranked.size());
+            for (Map.Entry<Product, Integer> e : ranked) out.add(e.getKey());
+            return out;
+        }
+
+        private SortedMap<String, Map<Product, Integer>> prefixRange(String prefix) {
+            return terms.subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+        }
+
+        // splits text into lowercase letter/digit runs, OR-ing the field bit into each term's mask
+        static void tokenize(String text, int field, Map<String, Integer> out) {
+            if (text == null) return;
+            int n = text.length();
+            int i = 0;
+            while (i < n) {
+                while (i < n && !Character.isLetterOrDigit(text.charAt(i))) i++;
+                int start = i;
+                while (i < n && Character.isLetterOrDigit(text.charAt(i))) i++;
+                if (i > start) out.merge(text.substring(start, i).toLowerCase(Locale.ROOT), field, (a, b) -> a | b);
+            }
+        }
+    }
+
+    /**
+     * FuzzyIndex: character trigram index over product names for typo-tolerant search.
+     * Candidates are ranked by trigram overlap with the query, and only the best few are confirmed
+     * with a bounded edit distance, so the verification cost does not grow with the catalog.
+     */
+    static class FuzzyIndex {
+        private static final int MAX_CANDIDATES = 200;
+        private static final int WALK_BUDGET = 5000;
+
+        private final Map<String, Set<Product>> trigrams = new HashMap<>();
+        private final Map<Product, String[]> nameTerms = new HashMap<>();
+
+        void clear() {
+            trigrams.clear();
+            nameTerms.clear();
+        }
+
+        void add(Product p) {
+            Map<String, Integer> terms = new LinkedHashMap<>();
+            SearchIndex.tokenize(p.getName(), 1, terms);
+            String[] words = terms.keySet().toArray(new String[0]);
+            nameTerms.put(p, words);
+            for (String w : words) {
+                for (String g : trigramsOf(w)) trigrams.computeIfAbsent(g, k -> new HashSet<>()).add(p);
+            }
+        }
+
+        void remove(Product p) {
+            String[] words = nameTerms.remove(p);
+            if (words == null) return;
+            for (String w : words) {
+                for (String g : trigramsOf(w)) {
+                    Set<Product> posting = trigrams.get(g);
+                    if (posting == null) continue;
+                    posting.remove(p);
+                    if (posting.isEmpty()) trigrams.remove(g);
+                }
+            }
+        }
+
+        void update(Product p) {
+            remove(p);
+            add(p);
+        }
+
+        /** Products whose name has a close match for every query word, closest first. */
+        List<Product> search(String query) {
+            Map<String, Integer> terms = new LinkedHashMap<>();
+            SearchIndex.tokenize(query, 1, terms);
+            if (terms.isEmpty()) return new ArrayList<>();
+            String[] words = terms.keySet().toArray(new String[0]);
+
+            // rarest trigrams first, walked while they fit the budget; after that postings are only probed
+            // for existing candidates, so common trigrams such as "$ca" do not scale with the catalog
+            List<Set<Product>> postings = new ArrayList<>();
+            for (String w : words) {
+                for (String g : trigramsOf(w)) {
+                    Set<Product> posting = trigrams.get(g);
+                    if (posting != null) postings.add(posting);
+                }
+            }
+            postings.sort(Comparator.comparingInt(Set::size));
+            Map<Product, Integer> overlap = new HashMap<>();
+            for (Set<Product> posting : postings) {
+                if (overlap.isEmpty() || overlap.size() + posting.size() <= WALK_BUDGET) {
+                    for (Product p : posting) overlap.merge(p, 1, Integer::sum);
+                } else {
+                    for (Map.Entry<Product, Integer> e : overlap.entrySet()) {
+                        if (posting.contains(e.getKey())) e.setValue(e.getValue() + 1);
+                    }
+                }
+            }
+
+            List<Map.Entry<Product, Integer>> candidates = new ArrayList<>(overlap.entrySet());
+            candidates.sort((a, b) -> b.getValue() - a.getValue());
+            if (candidates.size() > MAX_CANDIDATES) candidates = candidates.subList(0, MAX_CANDIDATES);
+
+            List<Product> matches = new ArrayList<>();
+            Map<Product, Integer> distance = new HashMap<>();
+            for (Map.Entry<Product, Integer> c : candidates) {
+                String[] name = nameTerms.get(c.getKey());
+                int total = 0;
+                for (String w : words) {
+                    int max = maxEdits(w);
+                    int best = max + 1;
+                    for (String t : name) best = Math.min(best, editDistance(w, t, max));
+                    if (best > max) { total = -1; break; }
+                    total += best;
+                }
+                if (total < 0) continue;
+                matches.add(c.getKey());
+                distance.put(c.getKey(), total);
+            }
+            matches.sort((a, b) -> distance.get(a).equals(distance.get(b))
+                    ? overlap.get(b) - overlap.get(a)
+                    : distance.get(a) - distance.get(b));
+            return matches;
+        }
+
+        // short words tolerate a single typo, longer ones two
+        private static int maxEdits(String word) {
+            return word.length() <= 4 ? 1 : 2;
+        }
+
+        private static List<String> trigramsOf(String word) {
+            String padded = "$" + word + "$";
+            List<String> out = new ArrayList<>(padded.length());
+            for (int i = 0; i + 3 <= padded.length(); i++) out.add(padded.substring(i, i + 3));
+            if (out.isEmpty()) out.add(padded);
+            return out;
+        }
+
+        /** Levenshtein distance, or max + 1 as soon as it is known to exceed max. */
+        static int editDistance(String a, String b, int max) {
+            if (Math.abs(a.length() - b.length()) > max) return max + 1;
+            int[] prev = new int[b.length() + 1];
+            int[] cur = new int[b.length() + 1];
+            for (int j = 0; j <= b.length(); j++) prev[j] = j;
+            for (int i = 1; i <= a.length(); i++) {
+                cur[0] = i;
+                int rowMin = cur[0];
+                for (int j = 1; j <= b.length(); j++) {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                    rowMin = Math.min(rowMin, cur[j]);
+                }
+                if (rowMin > max) return max + 1;
+                int[] t = prev; prev = cur; cur = t;
+            }
+            return Math.min(prev[b.length()], max + 1);
+        }
+    }
+
+    /**
+     * CategoryIndex: facet index from normalized category to its member products.
+     * Counts are the member set sizes, so the store filter never scans the catalog.
+     */
+    static class CategoryIndex {
+        private static class Facet {
+            final String label;
+            final Set<Product> members = new LinkedHashSet<>();
+            Facet(String label) { this.label = label; }
+        }
+
+        private final NavigableMap<String, Facet> facets = new TreeMap<>();
+        // key each product is filed under, so a category edit can move it
+        private final Map<Product, String> keyOf = new HashMap<>();
+
+        static String key(String category) {
+            return category == null ? "" : category.trim().toLowerCase(Locale.ROOT);
+        }
+
+        void clear() {
+            facets.clear();
+            keyOf.clear();
+        }
+
+        void add(Product p) {
+            String k = key(p.getCategory());
+            facets.computeIfAbsent(k, x -> new Facet(p.getCategory() == null ? "" : p.getCategory().trim())).members.add(p);
+            keyOf.put(p, k);
+        }
+
+        void remove(Product p) {
+            String k = keyOf.remove(p);
+            if (k == null) return;
+            Facet f = facets.get(k);
+            if (f == null) return;
+            f.members.remove(p);
+            if (f.members.isEmpty()) facets.remove(k);
+        }
+
+        void update(Product p) {
+            if (key(p.getCategory()).equals(keyOf.get(p))) return;
+            remove(p);
+            add(p);
+        }
+
+        Collection<Product> members(String category) {
+            Facet f = facets.get(key(category));
+            return f == null ? Collections.emptyList() : Collections.unmodifiableCollection(f.members);
+        }
+
+        Map<String, Integer> counts() {
+            Map<String, Integer> out = new LinkedHashMap<>();
+            for (Facet f : facets.values()) {
+                if (!f.label.isEmpty()) out.put(f.label, f.members.size());
+            }
+            return out;
+        }
+    }
+
+    /**
+     * SortedIndex: products ordered by a numeric field (price, stock) for range scans and sorted paging.
+     * Each entry remembers the key it was filed under, so it can be found again after the product's
+     * field has been changed in place.
+     */
+    static class SortedIndex {
+        private static final class Entry {
+            final long key;
+            final Product product;
+            Entry(long key, Product product) { this.key = key; this.product = product; }
+        }
+
+        private static final Comparator<Entry> ORDER = (a, b) -> {
+            int c = Long.compare(a.key, b.key);
+            return c != 0 ? c : a.product.getId().compareTo(b.product.getId());
+        };
+        // sentinel ids that sort before/after every real id, for inclusive range bounds
+        private static final UUID MIN_ID = new UUID(Long.MIN_VALUE, Long.MIN_VALUE);
+        private static final UUID MAX_ID = new UUID(Long.MAX_VALUE, Long.MAX_VALUE);
+
+        private final ToLongFunction<Product> keyFn;
+        private final NavigableSet<Entry> entries = new TreeSet<>(ORDER);
+        private final Map<Product, Entry> byProduct = new HashMap<>();
+
+        SortedIndex(ToLongFunction<Product> keyFn) { this.keyFn = keyFn; }
+
+        void clear() {
+            entries.clear();
+            byProduct.clear();
+        }
+
+        void add(Product p) {
+            Entry e = new Entry(keyFn.applyAsLong(p), p);
+            entries.add(e);
+            byProduct.put(p, e);
+        }
+
+        void remove(Product p) {
+            Entry e = byProduct.remove(p);
+            if (e != null) entries.remove(e);
+        }
+
+        void update(Product p) {
+            Entry e = byProduct.get(p);
+            if (e != null && e.key == keyFn.applyAsLong(p)) return;
+            remove(p);
+            add(p);
+        }
+
+        /** Products with key in [lo, hi] that pass the filter (null = all), skipping offset and stopping at limit. */
+        List<Product> range(long lo, long hi, boolean descending, int offset, int limit, Predicate<Product> filter) {
+            List<Product> out = new ArrayList<>();
+            if (lo > hi || limit <= 0) return out;
+            NavigableSet<Entry> view = entries.subSet(new Entry(lo, new Product(MIN_ID, "", "", 0, 0, "")), true,
+                    new Entry(hi, new Product(MAX_ID, "", "", 0, 0, "")), true);
+            int skipped = 0;
+            for (Entry e : descending ? view.descendingSet() : view) {
+                if (filter != null && !filter.test(e.product)) continue;
+                if (skipped++ < offset) continue;
+                out.add(e.product);
+                if (out.size() >= limit) break;
+            }
+            return out;
+        }
+    }
+
+    /**
+     * StockReservations: time-limited soft holds on stock for items sitting in carts.
+     * A hold takes units out of a product's available count straight away (so shoppers see
+     * available-to-sell) and hands them back if the cart neither checks out nor releases it in time.
+     * Expiry runs on a hashed timer wheel: holds are bucketed by deadline tick and each tick only
+     * visits one bucket, so the cost per tick is proportional to what expires, not to how many
+     * carts are open.
+     */
+    static class StockReservations {
+        private static final long TICK_MS = 1000;
+        // power of two, and longer (in ticks) than the default TTL so holds land in the right bucket on the first lap
+        private static final int WHEEL_SIZE = 1024;
+        static final long DEFAULT_TTL_MS = Long.getLong("shop.cartHoldSeconds", 15 * 60) * 1000;
+        private static StockReservations instance;
+
+        private static final int ACTIVE = 0, CLAIMED = 1, RELEASED = 2;
+
+        /** A hold on qty units of one product. Exactly one of claim, release or expiry wins it. */
+        static final class Hold {
+            final Product product;
+            final int qty;
+            final long deadlineMs;
+            private final AtomicInteger state = new AtomicInteger(ACTIVE);
+            long rounds; // ticker thread only
+
+            Hold(Product product, int qty, long deadlineMs) {
+                this.product = product;
+                this.qty = qty;
+                this.deadlineMs = deadlineMs;
+            }
+
+            boolean isActive() { return state.get() == ACTIVE; }
+        }
+
+        private final long ttlMs;
+        private final long startMs = System.currentTimeMillis();
+        // new holds are handed to the ticker thread, which alone owns the wheel buckets
+        private final Queue<Hold> incoming = new ConcurrentLinkedQueue<>();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final ArrayDeque<Hold>[] wheel = new ArrayDeque[WHEEL_SIZE];
+        private long tick; // next tick to process; ticker thread only
+        private final AtomicInteger active = new AtomicInteger();
+        // products whose availability moved since the stock index last saw them, re-filed in batches
+        // on the ticker thread so the EDT never waits on the DataStore write lock
+        private final Set<Product> unfiled = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean refileQueued = new AtomicBoolean();
+        private final ScheduledExecutorService ticker;
+
+        StockReservations(long ttlMs) {
+            this.ttlMs = ttlMs;
+            for (int i = 0; i < WHEEL_SIZE; i++) wheel[i] = new ArrayDeque<>();
+            ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cart-hold-expiry");
+                t.setDaemon(true);
+                return t;
+            });
+            ticker.scheduleAtFixedRate(this::advance, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+        }
+
+        public static synchronized StockReservations getInstance() {
+            if (instance == null) instance = new StockReservations(DEFAULT_TTL_MS);
+            return instance;
+        }
+
+        /** Holds qty units of p for the TTL, or returns null if that many are not available. */
+        Hold reserve(Product p, int qty) {
+            if (qty <= 0 || !p.tryReserve(qty)) return null;
+            Hold h = new Hold(p, qty, System.currentTimeMillis() + ttlMs);
+            active.incrementAndGet();
+            incoming.add(h);
+            availabilityChanged(p);
+            return h;
+        }
+
+        /** Gives the units back, e.g. when the item leaves the cart. */
+        void release(Hold h) {
+            if (h.state.compareAndSet(ACTIVE, RELEASED)) {
+                active.decrementAndGet();
+                h.product.releaseReservation(h.qty);
+                availabilityChanged(h.product);
+            }
+        }
+
+        /** Stops the hold from expiring and hands its units to a checkout; false if it already lapsed. */
+        boolean claim(Hold h) {
+            if (!h.state.compareAndSet(ACTIVE, CLAIMED)) return false;
+            active.decrementAndGet();
+            return true;
+        }
+
+        /** Returns a claimed hold's units when the checkout that claimed it did not go through. */
+        void unclaim(Hold h) {
+            if (h.state.compareAndSet(CLAIMED, RELEASED)) {
+                h.product.releaseReservation(h.qty);
+                availabilityChanged(h.product);
+            }
+        }
+
+        int activeHolds() { return active.get(); }
+
+        // the stock index is keyed on available units, which a hold just moved
+        private void availabilityChanged(Product p) {
+            unfiled.add(p);
+            if (refileQueued.compareAndSet(false, true)) ticker.execute(this::refile);
+            ChangeEvents.getInstance().productUpdated(p);
+        }
+
+        // ticker thread: one write lock for everything that moved since the last pass
+        private void refile() {
+            refileQueued.set(false); // anything added from here on queues another pass
+            List<Product> batch = new ArrayList<>();
+            for (Iterator<Product> it = unfiled.iterator(); it.hasNext(); ) {
+                batch.add(it.next());
+                it.remove();
+            }
+            try {
+                if (!batch.isEmpty()) DataStore.getInstance().availabilityChanged(batch);
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // keep the ticker alive
+            }
+        }
+
+        // ticker thread: catch up to wall-clock time, one bucket per tick
+        private void advance() {
+            try {
+                long due = (System.currentTimeMillis() - startMs) / TICK_MS;
+                while (tick <= due) {
+                    Hold h;
+                    while ((h = incoming.poll()) != null) schedule(h);
+                    ArrayDeque<Hold> bucket = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+                    Iterator<Hold> it = bucket.iterator();
+                    while (it.hasNext()) {
+                        Hold x = it.next();
+                        if (!x.isActive()) {
+                            it.remove();
+                        } else if (x.rounds > 0) {
+                            x.rounds--;
+                        } else {
+                            it.remove();
+                            release(x);
+                        }
+                    }
+                    tick++;
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // keep the ticker alive
+            }
+        }
+
+        private void schedule(Hold h) {
+            if (!h.isActive()) return;
+            long target = Math.max(tick, (h.deadlineMs - startMs + TICK_MS - 1) / TICK_MS);
+            h.rounds = (target - tick) / WHEEL_SIZE;
+            wheel[(int) (target & (WHEEL_SIZE - 1))].add(h);
+        }
+    }
+
+    /**
+     * ChangeEvents: what changed in the repository, published by the controllers once a mutation
+     * has committed. Changes are coalesced per entity and delivered to subscribers on the EDT at most
+     * once per frame, so a burst of stock updates costs each view one repaint.
+     */
+    static class ChangeEvents {
+        enum Kind { PRODUCT_ADDED, PRODUCT_UPDATED, PRODUCT_REMOVED, ORDER_PLACED, ORDER_STATUS }
+
+        static final class Change {
+            final Kind kind;
+            final UUID id;
+            final Product product; // null for order changes and removals
+            final Order order;     // null for product changes
+
+            Change(Kind kind, UUID id, Product product, Order order) {
+                this.kind = kind; this.id = id; this.product = product; this.order = order;
+            }
+        }
+
+        private static final int FRAME_MS = 16;
+        private static ChangeEvents instance;
+
+        private final List<Consumer<List<Change>>> listeners = new CopyOnWriteArrayList<>();
+        // latest pending change per entity, in first-seen order; guarded by this
+        private Map<UUID, Change> pending = new LinkedHashMap<>();
+        private boolean flushQueued;
+        private javax.swing.Timer frame; // EDT only
+
+        public static synchronized ChangeEvents getInstance() {
+            if (instance == null) instance = new ChangeEvents();
+            return instance;
+        }
+
+        /** Listeners are called on the EDT. */
+        void subscribe(Consumer<List<Change>> l) { listeners.add(l); }
+        void unsubscribe(Consumer<List<Change>> l) { listeners.remove(l); }
+
+        void productAdded(Product p) { publish(new Change(Kind.PRODUCT_ADDED, p.getId(), p, null)); }
+        void productUpdated(Product p) { publish(new Change(Kind.PRODUCT_UPDATED, p.getId(), p, null)); }
+        void productRemoved(UUID id) { publish(new Change(Kind.PRODUCT_REMOVED, id, null, null)); }
+        void orderPlaced(Order o) { publish(new Change(Kind.ORDER_PLACED, o.getId(), null, o)); }
+        void orderStatus(Order o) { publish(new Change(Kind.ORDER_STATUS, o.getId(), null, o)); }
+
+        private void publish(Change c) {
+            if (listeners.isEmpty()) return; // headless: nobody to tell
+            synchronized (this) {
+                Change merged = merge(pending.remove(c.id), c);
+                if (merged != null) pending.put(c.id, merged);
+                if (flushQueued) return;
+                flushQueued = true;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (frame == null) {
+                    frame = new javax.swing.Timer(FRAME_MS, e -> flush());
+                    frame.setRepeats(false);
+                }
+                frame.start();
+            });
+        }
+
+        // an entity that was added and changed in the same batch is still just "added"; added then removed is nothing
+        private static Change merge(Change prev, Change next) {
+            if (prev == null) return next;
+            switch (prev.kind) {
+                case PRODUCT_ADDED:
+                    if (next.kind == Kind.PRODUCT_REMOVED) return null;
+                    return new Change(Kind.PRODUCT_ADDED, next.id, next.product, null);
+                case ORDER_PLACED:
+                    return new Change(Kind.ORDER_PLACED, next.id, null, next.order);
+                default:
+                    return next;
+            }
+        }
+
+        private void flush() {
+            List<Change> batch;
+            synchronized (this) {
+                batch = new ArrayList<>(pending.values());
+                pending = new LinkedHashMap<>();
+                flushQueued = false;
+            }
+            if (batch.isEmpty()) return;
+            for (Consumer<List<Change>> l : listeners) l.accept(batch);
+        }
+    }
+
+    // Controllers
+    static class AuthController {
+        private final DataStore ds = DataStore.getInstance();
+
+        public User login(String email, String password) {
+            User u = ds.peek(() -> ds.userByEmail(email));
+            return u != null && u.checkPassword(password) ? u : null;
+        }
+
+        public User register(String name, String email, String password, User.Role role) throws IllegalArgumentException {
+            User user = new User(name, email, password, role);
+            return ds.write(() -> {
+                if (ds.userByEmail(email) != null) throw new IllegalArgumentException("Email already registered.");
+                ds.addUser(user);
+                ds.logUserRegistered(user);
+                return user;
+            });
+        }
+    }
+
+    static class ProductController {
+        private final DataStore ds = DataStore.getInstance();
+        private final ChangeEvents events = ChangeEvents.getInstance();
+
+        public List<Product> listAll() {
+            return ds.read(() -> new ArrayList<>(ds.repo.products));
+        }
+
+        public Product addProduct(String name, String desc, long priceCents, int stock, String category) {
+            return addProduct(name, desc, priceCents, stock, category, null);
+        }
+
+        public Product addProduct(String name, String desc, long priceCents, int stock, String category, String image) {
+            Product p = new Product(name, desc, priceCents, stock, category);
+            p.setImage(image);
+            ds.write(() -> {
+                ds.addProduct(p);
+                ds.logProductAdded(p);
+            });
+            events.productAdded(p);
+            return p;
+        }
+
+        /** Applies an edit to p under the write lock, so readers never see it half-done. */
+        public void updateProduct(Product p, String name, String desc, long priceCents, int stock, String category) {
+            updateProduct(p, name, desc, priceCents, stock, category, p.getImage());
+        }
+
+        public void updateProduct(Product p, String name, String desc, long priceCents, int stock, String category, String image) {
+            ds.write(() -> {
+                p.setStock(stock); // first: it is the one that can refuse, and then nothing else has changed
+                p.setName(name); p.setDescription(desc); p.setPriceCents(priceCents);
+                p.setCategory(category); p.setImage(image);
+                ds.productUpdated(p);
+                ds.logProductUpdated(p);
+            });
+            events.productUpdated(p);
+        }
+
+        public void updateProduct(Product p) {
+            ds.write(() -> {
+                ds.productUpdated(p);
+                ds.logProductUpdated(p);
+            });
+            events.productUpdated(p);
+        }
+
+        public void removeProduct(UUID id) {
+            boolean removed = ds.write(() -> {
+                if (!ds.removeProduct(id)) return false;
+                ds.logProductRemoved(id);
+                return true;
+            });
+            if (removed) events.productRemoved(id);
+        }
+
+        public Optional<Product> findById(UUID id) {
+            return Optional.ofNullable(ds.peek(() -> ds.product(id)));
+        }
+
+        // every query term matches as a word prefix in name, category or description; name hits rank first
+        public List<Product> search(String q, String category) {
+            return ds.read(() -> {
+                boolean anyCategory = category == null || category.isEmpty();
+                List<Product> hits = ds.searchProducts(q);
+                if (hits == null) return new ArrayList<>(anyCategory ? ds.repo.products : ds.productsInCategory(category));
+                if (anyCategory) return hits;
+                String key = CategoryIndex.key(category);
+                List<Product> out = new ArrayList<>();
+                for (Product p : hits) if (CategoryIndex.key(p.getCategory()).equals(key)) out.add(p);
+                return out;
+            });
+        }
+
+        /** Category display name to product count, sorted by name. */
+        public Map<String, Integer> categoryCounts() {
+            return ds.read(ds::categoryCounts);
+        }
+
+        enum Sort { PRICE_ASC, PRICE_DESC, STOCK_ASC, STOCK_DESC }
+
+        /** Catalog page priced within [minCents, maxCents], read off the price or stock index in the requested order. */
+        public List<Product> browse(long minCents, long maxCents, boolean inStockOnly, Sort sort, int offset, int limit) {
+            return ds.read(() -> {
+                switch (sort) {
+                    case STOCK_ASC:
+                    case STOCK_DESC:
+                        return ds.stockIndex().range(inStockOnly ? 1 : Long.MIN_VALUE, Long.MAX_VALUE,
+                                sort == Sort.STOCK_DESC, offset, limit, p -> p.getPriceCents() >= minCents && p.getPriceCents() <= maxCents);
+                    default:
+                        return ds.priceIndex().range(minCents, maxCents, sort == Sort.PRICE_DESC, offset, limit,
+                                inStockOnly ? p -> p.getStock() > 0 : null);
+                }
+            });
+        }
+
+        /** Products with stock at or below the threshold, lowest first. */
+        public List<Product> lowStock(int threshold, int limit) {
+            return ds.read(() -> ds.stockIndex().range(Long.MIN_VALUE, threshold, false, 0, limit, null));
+        }
+
+        /** Applies the browse filters to an already-computed result list (e.g. text search hits); null sort keeps its order. */
+        public List<Product> refine(List<Product> in, long minCents, long maxCents, boolean inStockOnly, Sort sort) {
+            List<Product> out = new ArrayList<>();
+            for (Product p : in) {
+                if (p.getPriceCents() < minCents || p.getPriceCents() > maxCents) continue;
+                if (inStockOnly && p.getStock() <= 0) continue;
+                out.add(p);
+            }
+            if (sort != null) {
+                Comparator<Product> cmp = sort == Sort.STOCK_ASC || sort == Sort.STOCK_DESC
+                        ? Comparator.comparingInt(Product::getStock)
+                        : Comparator.comparingLong(Product::getPriceCents);
+                if (sort == Sort.PRICE_DESC || sort == Sort.STOCK_DESC) cmp = cmp.reversed();
+                out.sort(cmp);
+            }
+            return out;
+        }
+
+        // typo-tolerant match on product names, for when search() finds nothing
+        public List<Product> fuzzySearch(String q, String category) {
+            return ds.read(() -> {
+                boolean anyCategory = category == null || category.isEmpty();
+                String key = CategoryIndex.key(category);
+                List<Product> out = new ArrayList<>();
+                for (Product p : ds.fuzzySearchProducts(q)) {
+                    if (anyCategory || CategoryIndex.key(p.getCategory()).equals(key)) out.add(p);
+                }
+                return out;
+            });
+        }
+    }
+
+    static class OrderController {
+        private final DataStore ds = DataStore.getInstance();
+        private final ChangeEvents events = ChangeEvents.getInstance();
+
+        /** One order in a placeOrders batch. */
+        static class OrderRequest {
+            final User user;
+            final List<OrderItem> items;
+            OrderRequest(User user, List<OrderItem> items) { this.user = user; this.items = items; }
+        }
+
+        /** Outcome of one OrderRequest: the placed order, or the reason it was rejected. */
+        static class OrderResult {
+            final Order order;
+            final String error;
+            OrderResult(Order order, String error) { this.order = order; this.error = error; }
+            boolean ok() { return order != null; }
+        }
+
+        /**
+         * Reserves stock for every line with per-product CAS, so carts that share no products never
+         * contend; if any line falls short the lines already taken are released. Only the final
+         * commit (order record, indexes, journal) runs under the write lock.
+         */
+        public Order placeOrder(User user, List<OrderItem> items) throws IllegalArgumentException {
+            return placeOrder(user, items, Collections.emptyMap());
+        }
+
+        /**
+         * As placeOrder, for a cart that already holds some of the units (productId -> quantity
+         * claimed from its StockReservations holds); only the remainder is reserved here. On failure
+         * the held units are left with the caller.
+         */
+        public Order placeOrder(User user, List<OrderItem> items, Map<UUID, Integer> held) throws IllegalArgumentException {
+            List<Product> lines = ds.read(() -> resolve(user, items));
+            // built before anything is reserved, so the only thing that can fail after that is commit
+            Order order = newOrder(user, items);
+            int[] extra = new int[items.size()];
+            for (int i = 0; i < items.size(); i++) {
+                extra[i] = Math.max(0, items.get(i).quantity - held.getOrDefault(items.get(i).productId, 0));
+            }
+            reserve(lines, extra);
+            try {
+                ds.write(() -> {
+                    commit(lines, items);
+                    ds.addOrder(order);
+                    ds.logOrderPlaced(order);
+                });
+            } catch (IllegalArgumentException e) {
+                release(lines, extra, lines.size());
+                throw e;
+            }
+            publishPlaced(lines, order);
+            return order;
+        }
+
+        private void publishPlaced(List<Product> lines, Order order) {
+            for (Product p : lines) events.productUpdated(p);
+            events.orderPlaced(order);
+        }
+
+        /**
+         * Places many orders at once (wholesale, phone-order imports). Each order reserves stock on
+         * its own and fails independently; all successful orders are then committed under one write
+         * lock and journaled as one group, so the cost grows with the batch, not with the repository.
+         * Results are in request order.
+         */
+        public List<OrderResult> placeOrders(List<OrderRequest> batch) {
+            OrderResult[] results = new OrderResult[batch.size()];
+            // per request: its resolved lines, or the validation message if it could not be resolved
+            List<Object> resolved = ds.read(() -> {
+                List<Object> out = new ArrayList<>(batch.size());
+                for (OrderRequest r : batch) {
+                    try {
+                        out.add(resolve(r.user, r.items));
+                    } catch (IllegalArgumentException e) {
+                        out.add(e.getMessage());
+                    }
+                }
+                return out;
+            });
+
+            // orders are built before any stock moves, so nothing but commit can fail inside the write lock
+            Order[] orders = new Order[batch.size()];
+            List<Integer> reserved = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                Object lines = resolved.get(i);
+                if (lines instanceof String) {
+                    results[i] = new OrderResult(null, (String) lines);
+                    continue;
+                }
+                try {
+                    orders[i] = newOrder(batch.get(i).user, batch.get(i).items);
+                    reserve(lineList(lines), quantities(batch.get(i).items));
+                    reserved.add(i);
+                } catch (IllegalArgumentException e) {
+                    results[i] = new OrderResult(null, e.getMessage());
+                }
+            }
+
+            ds.write(() -> {
+                List<Order> placed = new ArrayList<>(reserved.size());
+                for (int i : reserved) {
+                    OrderRequest r = batch.get(i);
+                    List<Product> lines = lineList(resolved.get(i));
+                    try {
+                        commit(lines, r.items);
+                    } catch (IllegalArgumentException e) {
+                        release(lines, quantities(r.items), lines.size());
+                        results[i] = new OrderResult(null, e.getMessage());
+                        continue;
+                    }
+                    Order order = orders[i];
+                    ds.addOrder(order);
+                    placed.add(order);
+                    results[i] = new OrderResult(order, null);
+                }
+                ds.logOrdersPlaced(placed);
+            });
+            for (int i = 0; i < results.length; i++) {
+                if (results[i].ok()) publishPlaced(lineList(resolved.get(i)), results[i].order);
+            }
+            return Arrays.asList(results);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static List<Product> lineList(Object resolved) {
+            return (List<Product>) resolved;
+        }
+
+        // caller holds a read or write lock
+        private List<Product> resolve(User user, List<OrderItem> items) {
+            if (user == null) throw new IllegalArgumentException("Please log in to place an order.");
+            if (items == null || items.isEmpty()) throw new IllegalArgumentException("Order has no items.");
+            List<Product> out = new ArrayList<>(items.size());
+            for (OrderItem it : items) {
+                Product p = ds.product(it.productId);
+                if (p == null) throw new IllegalArgumentException("Product not found: " + it.productName);
+                if (it.quantity <= 0) throw new IllegalArgumentException("Invalid quantity for: " + p.getName());
+                out.add(p);
+            }
+            return out;
+        }
+
+        private static Order newOrder(User user, List<OrderItem> items) {
+            try {
+                return new Order(user.getId(), items);
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Order total is too large.");
+            }
+        }
+
+        private static int[] quantities(List<OrderItem> items) {
+            int[] q = new int[items.size()];
+            for (int i = 0; i < q.length; i++) q[i] = items.get(i).quantity;
+            return q;
+        }
+
+        // all lines or none: on a shortfall the lines already reserved are handed back
+        private static void reserve(List<Product> lines, int[] qty) {
+            for (int i = 0; i < lines.size(); i++) {
+                Product p = lines.get(i);
+                if (qty[i] > 0 && !p.tryReserve(qty[i])) {
+                    release(lines, qty, i);
+                    throw new IllegalArgumentException("Insufficient stock for: " + p.getName());
+                }
+            }
+        }
+
+        private static void release(List<Product> lines, int[] qty, int count) {
+            for (int i = 0; i < count; i++) if (qty[i] > 0) lines.get(i).releaseReservation(qty[i]);
+        }
+
+        // caller holds the write lock; the products must still be in the catalog
+        private void commit(List<Product> lines, List<OrderItem> items) {
+            for (Product p : lines) {
+                if (ds.product(p.getId()) != p) throw new IllegalArgumentException("Product no longer available: " + p.getName());
+            }
+            for (int i = 0; i < lines.size(); i++) {
+                lines.get(i).commitReservation(items.get(i).quantity);
+                ds.stockChanged(lines.get(i));
+            }
+        }
 
-// ECommerceApp.java
-public class ECommerceApp {
+        public List<Order> getOrdersForUser(UUID userId) {
+            return ds.read(() -> new ArrayList<>(ds.ordersOf(userId)));
+        }
 
-    // Models (User, Product, Order, etc.)
-    static class User implements Serializable {
-        enum Role { ADMIN, CUSTOMER }
-        private static final long serialVersionUID = 1L;
-        private final UUID id;
-        private String name;
-        private String email;
-        private String passwordHash;
-        private Role role;
+        /** One page of a user's history, newest first; offset 0 is the most recent order. */
+        public List<Order> getRecentOrdersForUser(UUID userId, int offset, int limit) {
+            return ds.read(() -> {
+                List<Order> history = ds.ordersOf(userId);
+                int end = Math.max(0, history.size() - Math.max(0, offset));
+                int start = Math.max(0, end - Math.max(0, limit));
+                List<Order> out = new ArrayList<>(end - start);
+                for (int i = end - 1; i >= start; i--) out.add(history.get(i));
+                return out;
+            });
+        }
 
-        public User(String name, String email, String password, Role role) {
-            this.id = UUID.randomUUID();
-            this.name = name;
-            this.email = email.toLowerCase();
-            this.passwordHash = hash(password);
-            this.role = role;
+        public int countOrdersForUser(UUID userId) {
+            return ds.peek(() -> ds.ordersOf(userId).size());
         }
 
-        public UUID getId() { return id; }
-        public String getName() { return name; }
-        public String getEmail() { return email; }
-        public Role getRole() { return role; }
-        public void setName(String n) { name = n; }
-        public void setRole(Role r) { role = r; }
+        public List<Order> getAllOrders() {
+            return ds.read(() -> new ArrayList<>(ds.repo.orders));
+        }
 
-        public boolean checkPassword(String pw) {
-            return hash(pw).equals(passwordHash);
+        /** One page of every order, newest first; offset 0 is the most recent order. */
+        public List<Order> getRecentOrders(int offset, int limit) {
+            return ds.read(() -> {
+                List<Order> all = ds.repo.orders;
+                int end = Math.max(0, all.size() - Math.max(0, offset));
+                int start = Math.max(0, end - Math.max(0, limit));
+                List<Order> out = new ArrayList<>(end - start);
+                for (int i = end - 1; i >= start; i--) out.add(all.get(i));
+                return out;
+            });
         }
 
-        public void setPassword(String pw) { passwordHash = hash(pw); }
+        public int countOrders() {
+            return ds.peek(() -> ds.repo.orders.size());
+        }
 
-        private String hash(String s) {
-            return Integer.toString(Objects.hash(s));
+        /** Sum of every order total except cancelled ones, in cents; exact, and one pass over a flat list. */
+        public long revenueCents() {
+            return ds.read(() -> {
+                long sum = 0;
+                for (Order o : ds.repo.orders) {
+                    if (o.getStatus() != Order.Status.CANCELLED) sum = Math.addExact(sum, o.getTotalCents());
+                }
+                return sum;
+            });
         }
 
-        @Override
-        public String toString() {
-            return name + " <" + email + "> (" + role + ")";
+        public void updateOrderStatus(UUID orderId, Order.Status status) {
+            Order changed = ds.write(() -> {
+                Order o = ds.order(orderId);
+                if (o == null) return null;
+                o.setStatus(status);
+                ds.logOrderStatus(orderId, status);
+                return o;
+            });
+            if (changed != null) events.orderStatus(changed);
         }
     }
 
-    static class Product implements Serializable {
-        private static final long serialVersionUID = 1L;
-        private final UUID id;
-        private String name;
-        private String description;
-        private double price;
-        private int stock;
-        private String category;
+    /**
+     * AsyncControllers: the controller mutations the Swing views make, run on a small bounded pool.
+     * Each future completes once the change is applied and its journal record is on disk, so a view
+     * can show progress until then without the EDT ever waiting on the write lock, a snapshot encode
+     * or the journal. A full queue fails the future rather than blocking the caller.
+     * A future can fail two ways: the mutation itself was rejected (nothing changed), or it was
+     * applied but the disk write failed, which fails it with NotDurableException while the store
+     * keeps retrying the write. Only the first may be undone by the caller.
+     */
+    static class AsyncControllers {
+        /** The change took effect and stays in effect; only its disk write failed and is being retried. */
+        static class NotDurableException extends RuntimeException {
+            final Object value;
+            NotDurableException(Object value, Throwable cause) {
+                super("The change was made but could not be saved to disk yet; it will be retried.", cause);
+                this.value = value;
+            }
+        }
 
-        public Product(String name, String desc, double price, int stock, String category) {
-            this.id = UUID.randomUUID();
-            this.name = name;
-            this.description = desc;
-            this.price = price;
-            this.stock = stock;
-            this.category = category;
+        private static final int WORKERS = Integer.getInteger("shop.uiWorkers", 2);
+        private static final int QUEUE = 64;
+
+        private final ProductController products;
+        private final OrderController orders;
+        private final DataStore ds = DataStore.getInstance();
+        private final ExecutorService pool = new ThreadPoolExecutor(WORKERS, WORKERS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE), r -> {
+                    Thread t = new Thread(r, "controller-worker");
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        AsyncControllers(ProductController products, OrderController orders) {
+            this.products = products;
+            this.orders = orders;
         }
 
-        public UUID getId() { return id; }
-        public String getName() { return name; }
-        public String getDescription() { return description; }
-        public double getPrice() { return price; }
-        public int getStock() { return stock; }
-        public String getCategory() { return category; }
+        public CompletableFuture<Product> addProduct(String name, String desc, long priceCents, int stock, String category, String image) {
+            return submit(() -> products.addProduct(name, desc, priceCents, stock, category, image));
+        }
 
-        public void setName(String n) { name = n; }
-        public void setDescription(String d) { description = d; }
-        public void setPrice(double p) { price = p; }
-        public void setStock(int s) { stock = s; }
-        public void setCategory(String c) { category = c; }
-    }
+        public CompletableFuture<Product> updateProduct(Product p, String name, String desc, long priceCents, int stock, String category, String image) {
+            return submit(() -> {
+                products.updateProduct(p, name, desc, priceCents, stock, category, image);
+                return p;
+            });
+        }
 
-    static class Order implements Serializable {
-        private static final long serialVersionUID = 1L;
-        enum Status { PENDING, SHIPPED, DELIVERED, CANCELLED }
-        private final UUID id;
-        private final UUID userId;
-        private final LocalDateTime createdAt;
-        private final List<OrderItem> items;
-        private Status status;
-        private final double total;
+        public CompletableFuture<UUID> removeProduct(UUID id) {
+            return submit(() -> {
+                products.removeProduct(id);
+                return id;
+            });
+        }
 
-        public Order(UUID userId, List<OrderItem> items) {
-            this.id = UUID.randomUUID();
-            this.userId = userId;
-            this.createdAt = LocalDateTime.now();
-            this.items = new ArrayList<>(items);
-            this.total = items.stream().mapToDouble(i -> i.price * i.quantity).sum();
-            this.status = Status.PENDING;
+        public CompletableFuture<Order> placeOrder(User user, List<OrderItem> items, Map<UUID, Integer> held) {
+            return submit(() -> orders.placeOrder(user, items, held));
         }
 
-        public UUID getId() { return id; }
-        public UUID getUserId() { return userId; }
-        public LocalDateTime getCreatedAt() { return createdAt; }
-        public List<OrderItem> getItems() { return items; }
-        public Status getStatus() { return status; }
-        public void setStatus(Status s) { status = s; }
-        public double getTotal() { return total; }
+        public CompletableFuture<UUID> updateOrderStatus(UUID orderId, Order.Status status) {
+            return submit(() -> {
+                orders.updateOrderStatus(orderId, status);
+                return orderId;
+            });
+        }
+
+        // whenDurable is read on the worker right after the mutation, so it covers that mutation's record
+        private <T> CompletableFuture<T> submit(Supplier<T> work) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            try {
+                pool.execute(() -> {
+                    try {
+                        T value = work.get();
+                        ds.whenDurable().whenComplete((v, ex) -> {
+                            if (ex != null) result.completeExceptionally(new NotDurableException(value, ex));
+                            else result.complete(value);
+                        });
+                    } catch (RuntimeException e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(new IllegalStateException("The shop is busy, please try again."));
+            }
+            return result;
+        }
     }
 
-    static class OrderItem implements Serializable {
-        private static final long serialVersionUID = 1L;
-        final UUID productId;
-        final String productName;
-        final int quantity;
-        final double price;
+    /**
+     * ApiServer: headless JSON API over the controllers, started with {@code --server [port]}.
+     * Each request gets its own virtual thread when the runtime has them (JDK 21+); older runtimes
+     * fall back to a bounded platform-thread pool. It listens on loopback only unless
+     * {@code -Dshop.apiBind} names another address (e.g. 0.0.0.0).
+     */
+    static class ApiServer {
+        private static final String BIND = System.getProperty("shop.apiBind", "");
+        private static final int MAX_BODY = Integer.getInteger("shop.apiMaxBodyBytes", 64 * 1024);
+        private static final int MAX_PAGE = 200;
+        // idle time after which a token stops working; every authenticated request extends it
+        private static final long SESSION_TTL_MS = Long.getLong("shop.apiSessionMinutes", 30) * 60_000;
+
+        private final AuthController auth = new AuthController();
+        private final ProductController products = new ProductController();
+        private final OrderController orders = new OrderController();
+        // bearer token -> logged-in session
+        private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+        static final class Session {
+            final User user;
+            volatile long expiresAt;
+            Session(User user, long expiresAt) { this.user = user; this.expiresAt = expiresAt; }
+        }
 
-        public OrderItem(UUID productId, String productName, int qty, double price) {
-            this.productId = productId;
-            this.productName = productName;
-            this.quantity = qty;
-            this.price = price;
+        interface Route { Object handle(HttpExchange ex) throws IOException; }
+
+        static class ApiException extends RuntimeException {
+            final int status;
+            ApiException(int status, String message) { super(message); this.status = status; }
         }
-    }
 
-    // -------------------------------
-    // Repository / DataStore (persistence)
-    // -------------------------------
+        HttpServer start(int port) throws IOException {
+            InetAddress addr = BIND.isEmpty() ? InetAddress.getLoopbackAddress() : InetAddress.getByName(BIND);
+            HttpServer server = HttpServer.create(new InetSocketAddress(addr, port), 0);
+            server.createContext("/api/login", ex -> dispatch(ex, "POST", this::login));
+            server.createContext("/api/logout", ex -> dispatch(ex, "POST", this::logout));
+            server.createContext("/api/products", ex -> dispatch(ex, "GET", this::products));
+            server.createContext("/api/checkout", ex -> dispatch(ex, "POST", this::checkout));
+            server.createContext("/api/orders", ex -> dispatch(ex, "GET", this::orderHistory));
+            server.setExecutor(requestExecutor());
+            server.start();
+            return server;
+        }
 
-    static class Repository implements Serializable {
-        private static final long serialVersionUID = 1L;
-        List<User> users = new ArrayList<>();
-        List<Product> products = new ArrayList<>();
-        List<Order> orders = new ArrayList<>();
-    }
+        static ExecutorService requestExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newFixedThreadPool(Math.max(8, Runtime.getRuntime().availableProcessors() * 4));
+            }
+        }
 
-    static class DataStore {
-        private static final String DATA_FILE = "data.ser";
-        private static DataStore instance;
-        Repository repo;
+        private void dispatch(HttpExchange ex, String method, Route route) throws IOException {
+            try {
+                respond(ex, method, route);
+            } finally {
+                ex.close(); // even if an Error escapes, the connection is not left hanging
+            }
+        }
 
-        private DataStore() {
-            repo = load();
-            if (repo == null) {
-                repo = new Repository();
-                seedDefaultData(repo);
-                save();
+        private void respond(HttpExchange ex, String method, Route route) throws IOException {
+            int status = 200;
+            Object body;
+            try {
+                if (!method.equals(ex.getRequestMethod())) throw new ApiException(405, "Use " + method);
+                body = route.handle(ex);
+            } catch (ApiException e) {
+                status = e.status;
+                body = Collections.singletonMap("error", e.getMessage());
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                body = Collections.singletonMap("error", e.getMessage());
+            } catch (IOException e) {
+                // the client went away or sent a broken body; answer anyway in case it is still listening
+                status = 400;
+                body = Collections.singletonMap("error", "Could not read request body");
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                status = 500;
+                body = Collections.singletonMap("error", "Internal error");
+            }
+            byte[] out = Json.write(body).getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            ex.sendResponseHeaders(status, out.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(out);
             }
         }
 
-        public static synchronized DataStore getInstance() {
-            if (instance == null) instance = new DataStore();
-            return instance;
+        // POST /api/login {"email","password"} -> {"token","user"}
+        private Object login(HttpExchange ex) throws IOException {
+            Map<String, Object> req = readBody(ex);
+            User u = auth.login(str(req, "email"), str(req, "password"));
+            if (u == null) throw new ApiException(401, "Invalid credentials");
+            long now = System.currentTimeMillis();
+            sessions.values().removeIf(s -> s.expiresAt <= now);
+            String token = UUID.randomUUID().toString();
+            sessions.put(token, new Session(u, now + SESSION_TTL_MS));
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("token", token);
+            out.put("user", userJson(u));
+            return out;
         }
 
-        private Repository load() {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(DATA_FILE))) {
-                return (Repository) ois.readObject();
-            } catch (Exception e) {
-                return null;
+        // POST /api/logout with a bearer token; the token stops working at once
+        private Object logout(HttpExchange ex) {
+            session(ex);
+            sessions.remove(bearer(ex));
+            return Collections.singletonMap("ok", true);
+        }
+
+        // GET /api/products?q=&category=&offset=&limit=  or  GET /api/products/{id}
+        private Object products(HttpExchange ex) {
+            String path = ex.getRequestURI().getPath();
+            String rest = path.substring("/api/products".length());
+            if (rest.length() > 1) {
+                UUID id = uuid(rest.substring(1));
+                return products.findById(id).map(ApiServer::productJson)
+                        .orElseThrow(() -> new ApiException(404, "Product not found"));
             }
+            Map<String, String> q = query(ex);
+            int offset = Math.max(0, intParam(q, "offset", 0));
+            int limit = limitParam(q);
+            List<Product> hits = products.search(q.get("q"), q.get("category"));
+            List<Object> out = new ArrayList<>();
+            for (int i = offset; i < hits.size() && out.size() < limit; i++) out.add(productJson(hits.get(i)));
+            Map<String, Object> page = new LinkedHashMap<>();
+            page.put("total", hits.size());
+            page.put("products", out);
+            return page;
         }
 
-        public synchronized void save() {
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DATA_FILE))) {
-                oos.writeObject(repo);
-            } catch (Exception e) {
-                e.printStackTrace();
+        // POST /api/checkout {"items":[{"productId","quantity"}]} with a bearer token
+        private Object checkout(HttpExchange ex) throws IOException {
+            User u = session(ex);
+            Object rawItems = readBody(ex).get("items");
+            if (!(rawItems instanceof List) || ((List<?>) rawItems).isEmpty()) throw new IllegalArgumentException("items is required");
+            List<OrderItem> items = new ArrayList<>();
+            for (Object o : (List<?>) rawItems) {
+                if (!(o instanceof Map)) throw new IllegalArgumentException("Each item needs productId and quantity");
+                @SuppressWarnings("unchecked") Map<String, Object> line = (Map<String, Object>) o;
+                Product p = products.findById(bodyUuid(str(line, "productId")))
+                        .orElseThrow(() -> new IllegalArgumentException("Product not found: " + line.get("productId")));
+                Object qty = line.get("quantity");
+                if (!(qty instanceof Number)) throw new IllegalArgumentException("quantity must be a number");
+                double q = ((Number) qty).doubleValue();
+                if (q != Math.rint(q) || q < 1 || q > Integer.MAX_VALUE) throw new IllegalArgumentException("quantity must be a whole number of at least 1");
+                // price comes from the catalog, never from the client
+                items.add(new OrderItem(p.getId(), p.getName(), (int) q, p.getPriceCents()));
             }
+            return orderJson(orders.placeOrder(u, items));
         }
 
-        private void seedDefaultData(Repository r) {
-            User admin = new User("Admin", "admin@shop.com", "admin123", User.Role.ADMIN);
-            User c1 = new User("Ali", "ali@example.com", "pass", User.Role.CUSTOMER);
-            r.users.add(admin);
-            r.users.add(c1);
+        // GET /api/orders?offset=&limit= with a bearer token, newest first
+        private Object orderHistory(HttpExchange ex) {
+            User u = session(ex);
+            Map<String, String> q = query(ex);
+            int offset = intParam(q, "offset", 0);
+            int limit = limitParam(q);
+            List<Object> out = new ArrayList<>();
+            for (Order o : orders.getRecentOrdersForUser(u.getId(), offset, limit)) out.add(orderJson(o));
+            Map<String, Object> page = new LinkedHashMap<>();
+            page.put("total", orders.countOrdersForUser(u.getId()));
+            page.put("orders", out);
+            return page;
+        }
 
-            r.products.add(new Product("Chocolate Cake", "Delicious dark chocolate cake (8 inch)", 25.0, 15, "Cakes"));
-            r.products.add(new Product("Vanilla Cupcakes (6)", "Soft vanilla cupcakes (pack of 6)", 10.0, 40, "Cupcakes"));
-            r.products.add(new Product("Strawberry Tart", "Fresh strawberry tart", 18.0, 10, "Tarts"));
-            r.products.add(new Product("Red Velvet Slice", "Single slice of red velvet cake", 6.0, 30, "Slices"));
-            r.products.add(new Product("Lemon Cheesecake", "Creamy lemon cheesecake", 22.0, 8, "Cakes"));
-            r.products.add(new Product("Tiramisu", "Classic Italian coffee-flavored dessert", 28.0, 12, "Cakes"));
-            r.products.add(new Product("Macarons (12)", "Assorted French macarons", 15.0, 25, "Pastries"));
-            r.products.add(new Product("Carrot Cake", "Moist carrot cake with cream cheese frosting", 20.0, 18, "Cakes"));
+        private User session(HttpExchange ex) {
+            String token = bearer(ex);
+            Session s = token == null ? null : sessions.get(token);
+            long now = System.currentTimeMillis();
+            if (s != null && s.expiresAt <= now) {
+                sessions.remove(token);
+                s = null;
+            }
+            if (s == null) throw new ApiException(401, "Login required");
+            s.expiresAt = now + SESSION_TTL_MS;
+            return s.user;
         }
-    }
 
-    // Controllers
-    static class AuthController {
-        private final DataStore ds = DataStore.getInstance();
+        private static String bearer(HttpExchange ex) {
+            String h = ex.getRequestHeaders().getFirst("Authorization");
+            return h != null && h.startsWith("Bearer ") ? h.substring(7).trim() : null;
+        }
 
-        public User login(String email, String password) {
-            for (User u : ds.repo.users) {
-                if (u.getEmail().equalsIgnoreCase(email) && u.checkPassword(password)) return u;
+        @SuppressWarnings("unchecked")
+        private static Map<String, Object> readBody(HttpExchange ex) throws IOException {
+            String declared = ex.getRequestHeaders().getFirst("Content-Length");
+            if (declared != null) {
+                try {
+                    if (Long.parseLong(declared.trim()) > MAX_BODY) throw new ApiException(413, "Request body too large");
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad Content-Length");
+                }
             }
-            return null;
+            byte[] raw;
+            try (InputStream in = ex.getRequestBody()) {
+                raw = in.readNBytes(MAX_BODY + 1); // chunked bodies carry no length up front
+            }
+            if (raw.length > MAX_BODY) throw new ApiException(413, "Request body too large");
+            Object parsed = Json.parse(new String(raw, StandardCharsets.UTF_8));
+            if (!(parsed instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+            return (Map<String, Object>) parsed;
         }
 
-        public User register(String name, String email, String password, User.Role role) throws IllegalArgumentException {
-            for (User u : ds.repo.users) {
-                if (u.getEmail().equalsIgnoreCase(email)) throw new IllegalArgumentException("Email already registered.");
+        private static Map<String, String> query(HttpExchange ex) {
+            Map<String, String> out = new HashMap<>();
+            String raw = ex.getRequestURI().getRawQuery();
+            if (raw == null) return out;
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq <= 0) continue;
+                out.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
             }
-            User user = new User(name, email, password, role);
-            ds.repo.users.add(user);
-            ds.save();
-            return user;
+            return out;
         }
-    }
 
-    static class ProductController {
-        private final DataStore ds = DataStore.getInstance();
+        private static String str(Map<String, Object> m, String key) {
+            Object v = m.get(key);
+            if (!(v instanceof String)) throw new IllegalArgumentException(key + " is required");
+            return (String) v;
+        }
 
-        public List<Product> listAll() {
-            return new ArrayList<>(ds.repo.products);
+        // page size: 50 unless asked, never more than MAX_PAGE
+        private static int limitParam(Map<String, String> q) {
+            return Math.max(0, Math.min(MAX_PAGE, intParam(q, "limit", 50)));
         }
 
-        public Product addProduct(String name, String desc, double price, int stock, String category) {
-            Product p = new Product(name, desc, price, stock, category);
-            ds.repo.products.add(p);
-            ds.save();
-            return p;
+        private static int intParam(Map<String, String> q, String key, int def) {
+            try {
+                return q.containsKey(key) ? Integer.parseInt(q.get(key)) : def;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(key + " must be a number");
+            }
         }
 
-        public void updateProduct(Product p) {
-            ds.save();
+        // for ids in the URL path: a malformed one names no resource
+        private static UUID uuid(String s) {
+            try {
+                return UUID.fromString(s);
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(404, "Not found: " + s);
+            }
         }
 
-        public void removeProduct(UUID id) {
-            ds.repo.products.removeIf(p -> p.getId().equals(id));
-            ds.save();
+        // for ids in a request body: a malformed one is a bad request, like an unknown one
+        private static UUID bodyUuid(String s) {
+            try {
+                return UUID.fromString(s);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Not a valid id: " + s);
+            }
         }
 
-        public Optional<Product> findById(UUID id) {
-            return ds.repo.products.stream().filter(p -> p.getId().equals(id)).findFirst();
+        static Map<String, Object> userJson(User u) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", u.getId().toString());
+            m.put("name", u.getName());
+            m.put("email", u.getEmail());
+            m.put("role", u.getRole().toString());
+            return m;
         }
 
-        public List<Product> search(String q, String category) {
-            String qq = q == null ? "" : q.toLowerCase();
-            List<Product> out = new ArrayList<>();
-            for (Product p : ds.repo.products) {
-                boolean matches = (p.getName().toLowerCase().contains(qq) ||
-                        p.getDescription().toLowerCase().contains(qq));
-                boolean catOK = (category == null || category.isEmpty() || p.getCategory().equalsIgnoreCase(category));
-                if (matches && catOK) out.add(p);
+        static Map<String, Object> productJson(Product p) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", p.getId().toString());
+            m.put("name", p.getName());
+            m.put("description", p.getDescription());
+            m.put("category", p.getCategory());
+            m.put("price", Money.decimal(p.getPriceCents()));
+            m.put("stock", p.getStock());
+            m.put("image", p.getImage());
+            return m;
+        }
+
+        static Map<String, Object> orderJson(Order o) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", o.getId().toString());
+            m.put("userId", o.getUserId().toString());
+            m.put("createdAt", o.getCreatedAt().toString());
+            m.put("status", o.getStatus().toString());
+            m.put("total", Money.decimal(o.getTotalCents()));
+            List<Object> items = new ArrayList<>();
+            for (OrderItem it : o.getItems()) {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("productId", it.productId.toString());
+                line.put("productName", it.productName);
+                line.put("quantity", it.quantity);
+                line.put("price", Money.decimal(it.priceCents));
+                items.add(line);
             }
-            return out;
+            m.put("items", items);
+            return m;
         }
     }
 
-    static class OrderController {
-        private final DataStore ds = DataStore.getInstance();
+    /**
+     * Json: just enough JSON for the API server. Objects parse to LinkedHashMap, arrays to
+     * ArrayList, numbers to Double.
+     */
+    static class Json {
+        // deeper input is refused rather than recursed into, so a body of '[' can't overflow the stack
+        private static final int MAX_DEPTH = 32;
+        private final String src;
+        private int pos;
+        private int depth;
+
+        private Json(String src) { this.src = src; }
+
+        static Object parse(String text) {
+            Json p = new Json(text);
+            Object v = p.value();
+            p.skipWs();
+            if (p.pos != p.src.length()) throw p.error("trailing characters");
+            return v;
+        }
 
-        public Order placeOrder(User user, List<OrderItem> items) throws IllegalArgumentException {
-            for (OrderItem it : items) {
-                Product p = ds.repo.products.stream().filter(px -> px.getId().equals(it.productId)).findFirst().orElse(null);
-                if (p == null) throw new IllegalArgumentException("Product not found: " + it.productName);
-                if (p.getStock() < it.quantity) throw new IllegalArgumentException("Insufficient stock for: " + p.getName());
+        private Object value() {
+            skipWs();
+            if (pos >= src.length()) throw error("unexpected end");
+            char c = src.charAt(pos);
+            switch (c) {
+                case '{': {
+                    pos++;
+                    enter();
+                    Map<String, Object> m = new LinkedHashMap<>();
+                    skipWs();
+                    if (peek('}')) { depth--; return m; }
+                    do {
+                        skipWs();
+                        String key = string();
+                        skipWs();
+                        expect(':');
+                        m.put(key, value());
+                        skipWs();
+                    } while (peek(','));
+                    expect('}');
+                    depth--;
+                    return m;
+                }
+                case '[': {
+                    pos++;
+                    enter();
+                    List<Object> l = new ArrayList<>();
+                    skipWs();
+                    if (peek(']')) { depth--; return l; }
+                    do {
+                        l.add(value());
+                        skipWs();
+                    } while (peek(','));
+                    expect(']');
+                    depth--;
+                    return l;
+                }
+                case '"':
+                    return string();
+                case 't': return literal("true", Boolean.TRUE);
+                case 'f': return literal("false", Boolean.FALSE);
+                case 'n': return literal("null", null);
+                default: {
+                    int start = pos;
+                    while (pos < src.length() && "+-0123456789.eE".indexOf(src.charAt(pos)) >= 0) pos++;
+                    if (start == pos) throw error("unexpected '" + c + "'");
+                    try {
+                        return Double.parseDouble(src.substring(start, pos));
+                    } catch (NumberFormatException e) {
+                        throw error("bad number");
+                    }
+                }
             }
-            for (OrderItem it : items) {
-                Product p = ds.repo.products.stream().filter(px -> px.getId().equals(it.productId)).findFirst().orElse(null);
-                p.setStock(p.getStock() - it.quantity);
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (pos < src.length()) {
+                char c = src.charAt(pos++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= src.length()) break;
+                char e = src.charAt(pos++);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > src.length()) throw error("bad escape");
+                        sb.append((char) Integer.parseInt(src.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(e);
+                }
             }
-            Order order = new Order(user.getId(), items);
-            ds.repo.orders.add(order);
-            ds.save();
-            return order;
+            throw error("unterminated string");
         }
 
-        public List<Order> getOrdersForUser(UUID userId) {
-            List<Order> out = new ArrayList<>();
-            for (Order o : ds.repo.orders) if (o.getUserId().equals(userId)) out.add(o);
-            return out;
+        private Object literal(String word, Object v) {
+            if (!src.startsWith(word, pos)) throw error("unexpected token");
+            pos += word.length();
+            return v;
         }
 
-        public List<Order> getAllOrders() {
-            return new ArrayList<>(ds.repo.orders);
+        private void skipWs() {
+            while (pos < src.length() && Character.isWhitespace(src.charAt(pos))) pos++;
         }
 
-        public void updateOrderStatus(UUID orderId, Order.Status status) {
-            for (Order o : ds.repo.orders) if (o.getId().equals(orderId)) o.setStatus(status);
-            ds.save();
+        private boolean peek(char c) {
+            if (pos < src.length() && src.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!peek(c)) throw error("expected '" + c + "'");
+        }
+
+        private void enter() {
+            if (++depth > MAX_DEPTH) throw error("nested deeper than " + MAX_DEPTH);
+        }
+
+        private IllegalArgumentException error(String what) {
+            return new IllegalArgumentException("Malformed JSON at " + pos + ": " + what);
+        }
+
+        static String write(Object v) {
+            StringBuilder sb = new StringBuilder();
+            write(v, sb);
+            return sb.toString();
+        }
+
+        private static void write(Object v, StringBuilder sb) {
+            if (v == null) {
+                sb.append("null");
+            } else if (v instanceof String) {
+                quote((String) v, sb);
+            } else if (v instanceof Number || v instanceof Boolean) {
+                sb.append(v);
+            } else if (v instanceof Map) {
+                sb.append('{');
+                boolean first = true;
+                for (Map.Entry<?, ?> e : ((Map<?, ?>) v).entrySet()) {
+                    if (!first) sb.append(',');
+                    first = false;
+                    quote(String.valueOf(e.getKey()), sb);
+                    sb.append(':');
+                    write(e.getValue(), sb);
+                }
+                sb.append('}');
+            } else if (v instanceof Collection) {
+                sb.append('[');
+                boolean first = true;
+                for (Object o : (Collection<?>) v) {
+                    if (!first) sb.append(',');
+                    first = false;
+                    write(o, sb);
+                }
+                sb.append(']');
+            } else {
+                quote(v.toString(), sb);
+            }
+        }
+
+        private static void quote(String s, StringBuilder sb) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                        else sb.append(c);
+                }
+            }
+            sb.append('"');
         }
     }
 
     // UI / Views (Swing)
 
-    private final AuthController authController = new AuthController();
-    private final ProductController productController = new ProductController();
-    private final OrderController orderController = new OrderController();
+    // created on the EDT once the repository has loaded in the background; nothing else touches them before then
+    private AuthController authController;
+    private ProductController productController;
+    private OrderController orderController;
+    private AsyncControllers asyncControllers;
+
+    // startup timing, measured from main() and reported once the repository is in memory
+    private static final long MAIN_START = System.nanoTime();
+    private long loginShownNanos;
+
+    // store searches run here, one at a time, so a burst of keystrokes never queues more than the latest query
+    private static final ExecutorService SEARCH_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "store-search");
+        t.setDaemon(true);
+        return t;
+    });
 
     private JFrame frame;
     private CardLayout cardLayout;
     private JPanel mainPanel;
     private User currentUser;
-    private final Cart cart = new Cart();
+    private final Cart cart = new Cart(Boolean.parseBoolean(System.getProperty("shop.cartHolds", "true"))
+            ? StockReservations.getInstance() : null);
 
     // Modern light palette
     private static final Color BG = new Color(248, 249, 250); // very light gray
@@ -315,14 +2790,24 @@ public class ECommerceApp {
 
     private static final GradientPaint HEADER_GRADIENT = new GradientPaint(0, 0, new Color(255,255,255), 0, 120, new Color(245,247,250));
 
-    // Decimal format for prices
-    private static final DecimalFormat MONEY = new DecimalFormat("0.00");
 
     // Fonts
     private Font fontTitle, fontSubtitle, fontBody, fontSmall;
 
     // entry point
     public static void main(String[] args) {
+        if (args.length > 0 && "--server".equals(args[0])) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+            try {
+                HttpServer server = new ApiServer().start(port);
+                InetSocketAddress at = server.getAddress();
+                System.out.println("Sweet Slice API listening on http://" + at.getAddress().getHostAddress() + ":" + at.getPort() + "/api");
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
             UIManager.put("Button.arc", 12);
@@ -355,16 +2840,68 @@ public class ECommerceApp {
         mainPanel = new JPanel(cardLayout);
         mainPanel.setBackground(BG);
 
-        // add views
-        mainPanel.add(new AuthView(this), "AUTH");
-        mainPanel.add(new StoreView(this), "STORE");
-        mainPanel.add(new AdminView(this), "ADMIN");
-        mainPanel.add(new OrdersView(this), "ORDERS");
+        // only the login screen is built up front; the other views are built on first navigation
+        AuthView auth = (AuthView) view("AUTH");
+        auth.setLoading(true);
 
         frame.add(mainPanel);
         frame.setVisible(true);
-
         showAuth();
+        loginShownNanos = System.nanoTime();
+
+        // the repository is read off the EDT while the login screen shows its progress bar
+        Thread loader = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                DataStore ds = DataStore.getInstance();
+                long loaded = System.nanoTime();
+                SwingUtilities.invokeLater(() -> repositoryLoaded(ds, start, loaded));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> {
+                    JOptionPane.showMessageDialog(frame, "Could not load shop data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    System.exit(1);
+                });
+            }
+        }, "datastore-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private void repositoryLoaded(DataStore ds, long loadStart, long loadEnd) {
+        authController = new AuthController();
+        productController = new ProductController();
+        orderController = new OrderController();
+        asyncControllers = new AsyncControllers(productController, orderController);
+        ((AuthView) view("AUTH")).setLoading(false);
+
+        int[] counts = ds.peek(() -> new int[] { ds.repo.users.size(), ds.repo.products.size(), ds.repo.orders.size() });
+        System.out.printf("Startup: login shown at %d ms; repository ready at %d ms (loaded in %d ms off the EDT: %d users, %d products, %d orders)%n",
+                millisSinceMain(loginShownNanos), millisSinceMain(System.nanoTime()),
+                (loadEnd - loadStart) / 1_000_000, counts[0], counts[1], counts[2]);
+    }
+
+    private static long millisSinceMain(long nanos) {
+        return (nanos - MAIN_START) / 1_000_000;
+    }
+
+    // views are built the first time they are shown
+    private Component view(String name) {
+        Component c = findByName(mainPanel, name);
+        if (c != null) return c;
+        long start = System.nanoTime();
+        JPanel v;
+        switch (name) {
+            case "STORE": v = new StoreView(this); break;
+            case "ADMIN": v = new AdminView(this); break;
+            case "ORDERS": v = new OrdersView(this); break;
+            default: v = new AuthView(this); break;
+        }
+        mainPanel.add(v, name);
+        if (!"AUTH".equals(name)) {
+            System.out.printf("Startup: %s view built on first use in %d ms%n", name, (System.nanoTime() - start) / 1_000_000);
+        }
+        return v;
     }
 
     private void loadFonts() {
@@ -408,11 +2945,11 @@ public class ECommerceApp {
         return Collections.singletonList((Image) icon);
     }
 
-    // navigation helpers
+    // navigation helpers; the views follow ChangeEvents themselves, so showing one only syncs session state
     public void showAuth() { cardLayout.show(mainPanel, "AUTH"); }
-    public void showStore() { refreshStore(); cardLayout.show(mainPanel, "STORE"); }
-    public void showAdmin() { refreshAdmin(); cardLayout.show(mainPanel, "ADMIN"); }
-    public void showOrders() { refreshOrders(); cardLayout.show(mainPanel, "ORDERS"); }
+    public void showStore() { view("STORE"); refreshCartLabel(); cardLayout.show(mainPanel, "STORE"); }
+    public void showAdmin() { view("ADMIN"); cardLayout.show(mainPanel, "ADMIN"); }
+    public void showOrders() { view("ORDERS"); refreshOrders(); cardLayout.show(mainPanel, "ORDERS"); }
 
     // login/register actions called by AuthView
     public void handleLogin(String email, String password) {
@@ -449,13 +2986,9 @@ public class ECommerceApp {
     public OrderController getOrderController() { return orderController; }
 
     // refreshers to update view data
-    void refreshStore() {
+    void refreshCartLabel() {
         Component c = findByName(mainPanel, "STORE");
-        if (c instanceof StoreView) ((StoreView) c).refresh();
-    }
-    void refreshAdmin() {
-        Component c = findByName(mainPanel, "ADMIN");
-        if (c instanceof AdminView) ((AdminView) c).refresh();
+        if (c instanceof StoreView) ((StoreView) c).updateCartLabel();
     }
     void refreshOrders() {
         Component c = findByName(mainPanel, "ORDERS");
@@ -480,6 +3013,9 @@ public class ECommerceApp {
         private final JTextField regName = new JTextField(15);
         private final JTextField regEmail = new JTextField(15);
         private final JPasswordField regPass = new JPasswordField(15);
+        private final JButton loginBtn = styledButton("Login", ACCENT, ACCENT_DARK);
+        private final JButton regBtn = styledButton("Register", BUTTON, BUTTON_HOVER);
+        private final JProgressBar loadingBar = new JProgressBar();
 
 
         AuthView(ECommerceApp app) {
@@ -550,7 +3086,6 @@ public class ECommerceApp {
             f.gridx = 0; f.gridy++; forms.add(new JLabel("Password:"), f);
             f.gridx = 1; forms.add(passwordField, f);
             f.gridx = 1; f.gridy++;
-            JButton loginBtn = styledButton("Login", ACCENT, ACCENT_DARK);
             loginBtn.setPreferredSize(new Dimension(120, 36));
             forms.add(loginBtn, f);
 
@@ -573,7 +3108,6 @@ public class ECommerceApp {
             f.gridx = 0; f.gridy++; forms.add(new JLabel("Password:"), f);
             f.gridx = 1; forms.add(regPass, f);
             f.gridx = 1; f.gridy++;
-            JButton regBtn = styledButton("Register", BUTTON, BUTTON_HOVER);
             regBtn.setPreferredSize(new Dimension(160, 36));
             forms.add(regBtn, f);
 
@@ -586,6 +3120,21 @@ public class ECommerceApp {
             info.setFont(fontSmall);
             gbc.gridx = 0; gbc.gridy = 1; gbc.gridwidth = 2; gbc.weighty = 0.0; gbc.fill = GridBagConstraints.NONE;
             add(info, gbc);
+
+            loadingBar.setIndeterminate(true);
+            loadingBar.setStringPainted(true);
+            loadingBar.setString("Loading the shop...");
+            loadingBar.setFont(fontSmall);
+            loadingBar.setVisible(false);
+            gbc.gridy = 2;
+            add(loadingBar, gbc);
+        }
+
+        // the forms can be filled in while the repository loads, but not submitted
+        void setLoading(boolean loading) {
+            loadingBar.setVisible(loading);
+            loginBtn.setEnabled(!loading);
+            regBtn.setEnabled(!loading);
         }
 
         private JSeparator createSeparator() {
@@ -625,13 +3174,27 @@ public class ECommerceApp {
 
     // StoreView: product browsing (card grid), cart, checkout
     class StoreView extends JPanel {
-        private final JPanel cardsPanel = new JPanel();
+        private final CardGrid grid = new CardGrid();
         private final JScrollPane scrollPane;
         private final JTextField searchField = new JTextField(16);
         private final JComboBox<String> categoryBox = new JComboBox<>();
+        // price bands and sort orders offered by the store filter; index-aligned with the arrays below
+        private final JComboBox<String> priceBox = new JComboBox<>(new String[] { "Any price", "Under $10", "Under $15", "Under $25", "$25 and up" });
+        // in cents
+        private final long[][] priceBands = { { 0, Long.MAX_VALUE }, { 0, 999 }, { 0, 1499 }, { 0, 2499 }, { 2500, Long.MAX_VALUE } };
+        private final JComboBox<String> sortBox = new JComboBox<>(new String[] { "Featured", "Price: low to high", "Price: high to low" });
+        private final ProductController.Sort[] sorts = { null, ProductController.Sort.PRICE_ASC, ProductController.Sort.PRICE_DESC };
+        private final JCheckBox inStockBox = new JCheckBox("In stock only");
         private final JLabel cartLabel = new JLabel();
         private final JLabel welcomeLabel = new JLabel();
-
+        private Map<String, Integer> categoryCounts = Collections.emptyMap();
+        // new products are only appended to the grid while the unfiltered catalog is shown
+        private boolean showingAll = true;
+        // search-as-you-type: keystrokes restart the debounce, queries run on searchExecutor and the latest one wins
+        private static final int SEARCH_DEBOUNCE_MS = 200;
+        private final javax.swing.Timer searchDebounce = new javax.swing.Timer(SEARCH_DEBOUNCE_MS, e -> doSearch());
+        private SwingWorker<List<Product>, Void> pendingSearch;
+        private boolean reloadingCategories;
 
         StoreView(ECommerceApp app) {
             setName("STORE");
@@ -660,13 +3223,26 @@ public class ECommerceApp {
             searchPanel.add(searchField);
 
             searchPanel.add(new JLabel("Category:"));
-            categoryBox.addItem("");
-            Set<String> cats = new TreeSet<>();
-            for (Product p : productController.listAll()) cats.add(p.getCategory());
-            for (String c : cats) categoryBox.addItem(c);
+            reloadCategories();
             styleComboBox(categoryBox);
+            categoryBox.setRenderer(new DefaultListCellRenderer() {
+                @Override
+                public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                    Integer n = value == null ? null : categoryCounts.get(value);
+                    Object text = n == null ? value : value + " (" + n + ")";
+                    return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+                }
+            });
             searchPanel.add(categoryBox);
 
+            styleComboBox(priceBox);
+            searchPanel.add(priceBox);
+            styleComboBox(sortBox);
+            searchPanel.add(sortBox);
+            inStockBox.setBackground(BG);
+            inStockBox.setFont(fontBody);
+            searchPanel.add(inStockBox);
+
             JButton searchBtn = styledButton("Search", BUTTON, BUTTON_HOVER);
             searchBtn.setPreferredSize(new Dimension(100, 34));
             searchPanel.add(searchBtn);
@@ -689,11 +3265,10 @@ public class ECommerceApp {
             add(header, BorderLayout.NORTH);
 
             // Cards panel in center
-            cardsPanel.setLayout(new WrapLayout(FlowLayout.LEFT, 20, 20));
-            cardsPanel.setBackground(BG);
-            scrollPane = new JScrollPane(cardsPanel);
+            scrollPane = new JScrollPane(grid);
             scrollPane.setBorder(BorderFactory.createEmptyBorder());
             scrollPane.getVerticalScrollBar().setUnitIncrement(16);
+            scrollPane.getViewport().addChangeListener(e -> grid.bindVisible());
             add(scrollPane, BorderLayout.CENTER);
 
             // Bottom bar
@@ -707,6 +3282,17 @@ public class ECommerceApp {
 
             // Listeners
             searchBtn.addActionListener(e -> doSearch());
+            searchField.addActionListener(e -> doSearch());
+            searchDebounce.setRepeats(false);
+            searchField.getDocument().addDocumentListener(new DocumentListener() {
+                @Override public void insertUpdate(DocumentEvent e) { searchDebounce.restart(); }
+                @Override public void removeUpdate(DocumentEvent e) { searchDebounce.restart(); }
+                @Override public void changedUpdate(DocumentEvent e) { }
+            });
+            categoryBox.addActionListener(e -> { if (!reloadingCategories) doSearch(); });
+            priceBox.addActionListener(e -> doSearch());
+            sortBox.addActionListener(e -> doSearch());
+            inStockBox.addActionListener(e -> doSearch());
             logout.addActionListener(e -> app.logout());
             adminBtn.addActionListener(e -> {
                 if (app.getCurrentUser() != null && app.getCurrentUser().getRole() == User.Role.ADMIN) app.showAdmin();
@@ -718,172 +3304,385 @@ public class ECommerceApp {
                 CartDialog dlg = new CartDialog(frame, cart, productController, orderController, app);
                 dlg.setVisible(true);
                 updateCartLabel();
-                refresh();
             });
 
             // initial populate
             populateCards(productController.listAll());
+            ChangeEvents.getInstance().subscribe(this::applyChanges);
         }
 
+        // reads the filters on the EDT and runs the query in the background; a newer search cancels this one
         void doSearch() {
+            searchDebounce.stop();
+            if (pendingSearch != null) pendingSearch.cancel(false);
             String q = searchField.getText();
             String cat = (String) categoryBox.getSelectedItem();
-            List<Product> results = productController.search(q, cat == null ? "" : cat);
-            populateCards(results);
+            long[] band = priceBands[Math.max(0, priceBox.getSelectedIndex())];
+            ProductController.Sort sort = sorts[Math.max(0, sortBox.getSelectedIndex())];
+            boolean inStock = inStockBox.isSelected();
+            boolean hasText = q != null && !q.trim().isEmpty();
+            boolean hasCat = cat != null && !cat.isEmpty();
+
+            boolean filtered = sort != null || inStock || priceBox.getSelectedIndex() > 0;
+            boolean all = !hasText && !hasCat && !filtered;
+
+            SwingWorker<List<Product>, Void> worker = new SwingWorker<List<Product>, Void>() {
+                @Override
+                protected List<Product> doInBackground() {
+                    if (!hasText && !hasCat && filtered) {
+                        // pure price/stock browsing reads straight off the sorted indexes
+                        return productController.browse(band[0], band[1], inStock,
+                                sort == null ? ProductController.Sort.PRICE_ASC : sort, 0, Integer.MAX_VALUE);
+                    }
+                    List<Product> results = productController.search(q, cat == null ? "" : cat);
+                    if (isCancelled()) return results;
+                    if (results.isEmpty() && hasText) {
+                        results = productController.fuzzySearch(q, cat == null ? "" : cat);
+                    }
+                    return productController.refine(results, band[0], band[1], inStock, sort);
+                }
+
+                @Override
+                protected void done() {
+                    if (isCancelled() || pendingSearch != this) return;
+                    pendingSearch = null;
+                    try {
+                        showingAll = all;
+                        populateCards(get());
+                    } catch (InterruptedException | ExecutionException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            };
+            pendingSearch = worker;
+            SEARCH_EXECUTOR.execute(worker);
         }
 
         void populateCards(List<Product> products) {
-            cardsPanel.removeAll();
-            if (products.isEmpty()) {
-                JLabel noResults = new JLabel("<html><div style='text-align:center;padding:40px;color:" +
-                        String.format("#%02x%02x%02x", TEXT_LIGHT.getRed(), TEXT_LIGHT.getGreen(), TEXT_LIGHT.getBlue()) +
-                        ";'>No products found matching your criteria.</div></html>");
+            grid.setProducts(products);
+            scrollPane.getViewport().setViewPosition(new Point(0, 0));
+        }
+
+        /**
+         * CardGrid: the store's product grid. Only the cards in the viewport, plus a row of overscan
+         * either side, exist as components; as the view scrolls they are rebound to other products
+         * rather than rebuilt, so the cost of a search no longer grows with the size of the result.
+         */
+        class CardGrid extends JPanel implements Scrollable {
+            private static final int CARD_W = 260, CARD_H = 340, GAP = 20, OVERSCAN_ROWS = 1;
+            private List<Product> products = new ArrayList<>();
+            private final Map<UUID, Integer> positions = new HashMap<>();
+            // model index -> card currently showing it; cards scrolled out of range wait in spare
+            private final Map<Integer, ProductCard> bound = new HashMap<>();
+            private final ArrayDeque<ProductCard> spare = new ArrayDeque<>();
+            private final JLabel noResults = new JLabel("<html><div style='text-align:center;padding:40px;color:" +
+                    String.format("#%02x%02x%02x", TEXT_LIGHT.getRed(), TEXT_LIGHT.getGreen(), TEXT_LIGHT.getBlue()) +
+                    ";'>No products found matching your criteria.</div></html>");
+
+            CardGrid() {
+                super(null);
+                setBackground(BG);
                 noResults.setFont(fontBody);
-                cardsPanel.add(noResults);
-            } else {
-                for (Product p : products) {
-                    cardsPanel.add(productCard(p));
-                }
+                noResults.setVisible(false);
+                add(noResults);
             }
-            cardsPanel.revalidate();
-            cardsPanel.repaint();
-        }
 
-        JPanel productCard(Product p) {
-            JPanel card = new JPanel(new BorderLayout());
-            card.setPreferredSize(new Dimension(260, 340));
-            card.setBackground(CARD_BG);
-            card.setBorder(new CompoundBorder(
-                    new LineBorder(BORDER, 1),
-                    new EmptyBorder(12,12,12,12)
-            ));
+            void setProducts(List<Product> list) {
+                products = new ArrayList<>(list);
+                reindex(0);
+                rebindAll();
+            }
 
-            // subtle shadow
-            card.setBorder(new CompoundBorder(
-                    new DropShadowBorder(new Color(200,200,200), 4, 0.25f, 10, false, false, true, true),
-                    card.getBorder()
-            ));
+            void productAdded(Product p) {
+                positions.put(p.getId(), products.size());
+                products.add(p);
+                rebindAll();
+            }
 
-            /*// Product "image"
-            JPanel imagePanel = new JPanel(new BorderLayout()) {
-                @Override
-                protected void paintComponent(Graphics g) {
-                    super.paintComponent(g);
-                    Graphics2D g2d = (Graphics2D) g;
-                    g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            void productChanged(Product p) {
+                Integer i = positions.get(p.getId());
+                if (i == null) return;
+                products.set(i, p);
+                ProductCard card = bound.get(i);
+                if (card != null) card.bind(p);
+            }
+
+            void productRemoved(UUID id) {
+                Integer i = positions.remove(id);
+                if (i == null) return;
+                products.remove((int) i);
+                reindex(i);
+                rebindAll();
+            }
 
-                    GradientPaint gradient = new GradientPaint(0, 0, new Color(248, 249, 250), 0, getHeight(), new Color(242, 244, 247));
-                    g2d.setPaint(gradient);
-                    g2d.fillRoundRect(0, 0, getWidth(), getHeight(), 14, 14);
+            private void reindex(int from) {
+                if (from == 0) positions.clear();
+                for (int i = from; i < products.size(); i++) positions.put(products.get(i).getId(), i);
+            }
 
-                    g2d.setColor(ACCENT);
-                    int cakeWidth = getWidth()/2;
-                    int cakeHeight = getHeight()/3;
-                    int x = (getWidth() - cakeWidth)/2;
-                    int y = (getHeight() - cakeHeight)/2;
+            private void rebindAll() {
+                for (ProductCard c : bound.values()) {
+                    c.setVisible(false);
+                    spare.add(c);
+                }
+                bound.clear();
+                noResults.setVisible(products.isEmpty());
+                revalidate();
+                bindVisible();
+                repaint();
+            }
 
-                    g2d.fillRoundRect(x, y + cakeHeight/2, cakeWidth, cakeHeight/2, 10, 10);
-                    g2d.setColor(new Color(255,255,255));
-                    g2d.fillRoundRect(x, y, cakeWidth, cakeHeight/2, 14, 14);
+            private int columns() {
+                return Math.max(1, (getWidth() - GAP) / (CARD_W + GAP));
+            }
 
-                    g2d.setColor(ACCENT_DARK);
-                    for (int i = 0; i < 4; i++) {
-                        g2d.fillOval(x + 12 + i*(cakeWidth/4), y + 10, 8, 8);
+            /** Binds cards to the rows in (or just outside) the viewport and parks the rest. */
+            void bindVisible() {
+                if (getWidth() == 0 || products.isEmpty()) return;
+                int cols = columns(), rowH = CARD_H + GAP;
+                Rectangle vis = getVisibleRect();
+                int rows = (products.size() + cols - 1) / cols;
+                int firstRow = Math.max(0, vis.y / rowH - OVERSCAN_ROWS);
+                int lastRow = Math.min(rows - 1, (vis.y + vis.height) / rowH + OVERSCAN_ROWS);
+                int from = firstRow * cols, to = Math.min(products.size(), (lastRow + 1) * cols);
+
+                Iterator<Map.Entry<Integer, ProductCard>> it = bound.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Integer, ProductCard> e = it.next();
+                    if (e.getKey() < from || e.getKey() >= to) {
+                        e.getValue().setVisible(false);
+                        spare.add(e.getValue());
+                        it.remove();
                     }
                 }
-            };
-            imagePanel.setPreferredSize(new Dimension(240, 140));
-            imagePanel.setBorder(new LineBorder(BORDER, 1));
-            card.add(imagePanel, BorderLayout.NORTH);
-*/
-            // details
-            JPanel center = new JPanel(new BorderLayout());
-            center.setBackground(CARD_BG);
-            center.setBorder(new EmptyBorder(10, 8, 10, 8));
-            JLabel name = new JLabel("<html><b>" + p.getName() + "</b></html>");
-            name.setFont(fontBody.deriveFont(Font.BOLD));
-            name.setForeground(TEXT);
-            center.add(name, BorderLayout.NORTH);
-
-            JTextArea desc = new JTextArea(p.getDescription());
-            desc.setLineWrap(true);
-            desc.setWrapStyleWord(true);
-            desc.setEditable(false);
-            desc.setOpaque(false);
-            desc.setFont(fontSmall);
-            desc.setForeground(TEXT_LIGHT);
-            desc.setBorder(new EmptyBorder(6, 0, 6, 0));
-            center.add(desc, BorderLayout.CENTER);
-            card.add(center, BorderLayout.CENTER);
-
-            // bottom
-            JPanel bottom = new JPanel(new BorderLayout());
-            bottom.setBackground(CARD_BG);
-            bottom.setBorder(new EmptyBorder(6, 0, 0, 0));
-
-            JLabel priceLbl = new JLabel("$" + MONEY.format(p.getPrice()));
-            priceLbl.setBorder(new EmptyBorder(6,6,6,6));
-            priceLbl.setFont(fontSubtitle);
-            priceLbl.setForeground(ACCENT_DARK);
-            bottom.add(priceLbl, BorderLayout.WEST);
-
-            JPanel right = new JPanel(new FlowLayout(FlowLayout.RIGHT,6,6));
-            right.setBackground(CARD_BG);
-            JLabel stock = new JLabel("Stock: " + p.getStock());
-            stock.setFont(fontSmall);
-            stock.setForeground(p.getStock() > 5 ? TEXT_LIGHT : Color.RED);
-            right.add(stock);
-
-            JButton add = styledButton("Add", ACCENT, ACCENT_DARK);
-            add.setPreferredSize(new Dimension(84, 32));
-            right.add(add);
-            bottom.add(right, BorderLayout.EAST);
-
-            add.addActionListener(e -> {
-                if (p.getStock() <= 0) {
-                    JOptionPane.showMessageDialog(frame, "Sorry, this item is out of stock.", "Out of Stock", JOptionPane.WARNING_MESSAGE);
-                    return;
+                for (int i = from; i < to; i++) {
+                    ProductCard card = bound.get(i);
+                    if (card == null) {
+                        card = spare.poll();
+                        if (card == null) {
+                            card = new ProductCard();
+                            add(card);
+                        }
+                        card.bind(products.get(i));
+                        card.setVisible(true);
+                        bound.put(i, card);
+                    }
+                    card.setBounds(GAP + (i % cols) * (CARD_W + GAP), GAP + (i / cols) * rowH, CARD_W, CARD_H);
                 }
-                String qtyStr = JOptionPane.showInputDialog(frame, "Quantity to add:", "1");
-                try {
-                    int q = Integer.parseInt(qtyStr);
-                    if (q <= 0) throw new NumberFormatException();
-                    if (q > p.getStock()) {
-                        JOptionPane.showMessageDialog(frame, "Not enough stock. Only " + p.getStock() + " available.");
+            }
+
+            @Override
+            public void doLayout() {
+                noResults.setBounds(0, 0, getWidth(), noResults.getPreferredSize().height);
+                bindVisible();
+            }
+
+            @Override
+            public Dimension getPreferredSize() {
+                int width = getParent() instanceof JViewport ? getParent().getWidth() : getWidth();
+                int cols = Math.max(1, (width - GAP) / (CARD_W + GAP));
+                int rows = (products.size() + cols - 1) / cols;
+                return new Dimension(CARD_W + 2 * GAP, GAP + rows * (CARD_H + GAP));
+            }
+
+            @Override public Dimension getPreferredScrollableViewportSize() { return getPreferredSize(); }
+            @Override public int getScrollableUnitIncrement(Rectangle r, int orientation, int direction) { return 16; }
+            @Override public int getScrollableBlockIncrement(Rectangle r, int orientation, int direction) {
+                return orientation == SwingConstants.VERTICAL ? r.height : r.width;
+            }
+            @Override public boolean getScrollableTracksViewportWidth() { return true; }
+            @Override public boolean getScrollableTracksViewportHeight() { return false; }
+        }
+
+        // one reusable card; bind() points it at a product
+        class ProductCard extends JPanel {
+            private Product product;
+            private final JPanel imagePanel = new JPanel() {
+                @Override
+                protected void paintComponent(Graphics g) {
+                    super.paintComponent(g);
+                    int w = getWidth(), h = getHeight();
+                    BufferedImage thumb = product == null ? null : ImageCache.getInstance().thumbnail(product.getImage(), w, h, this);
+                    if (thumb != null) {
+                        g.drawImage(thumb, 0, 0, null);
                         return;
                     }
-                    cart.addItem(p, q);
-                    updateCartLabel();
-                    JOptionPane.showMessageDialog(frame, "Added to cart: " + q + " x " + p.getName(), "Success", JOptionPane.INFORMATION_MESSAGE);
-                } catch (NumberFormatException ex) {
-                    JOptionPane.showMessageDialog(frame, "Please enter a valid quantity.", "Invalid Input", JOptionPane.ERROR_MESSAGE);
+                    // no image, or not loaded yet
+                    PaintCache.draw(g, 0, 0, w, h, PaintCache.PLACEHOLDER, ACCENT.getRGB(), 0, (g2d, pw, ph) -> {
+                        GradientPaint gradient = new GradientPaint(0, 0, new Color(248, 249, 250), 0, ph, new Color(242, 244, 247));
+                        g2d.setPaint(gradient);
+                        g2d.fillRoundRect(0, 0, pw, ph, 14, 14);
+
+                        g2d.setColor(ACCENT);
+                        int cakeWidth = pw/2;
+                        int cakeHeight = ph/3;
+                        int x = (pw - cakeWidth)/2;
+                        int y = (ph - cakeHeight)/2;
+
+                        g2d.fillRoundRect(x, y + cakeHeight/2, cakeWidth, cakeHeight/2, 10, 10);
+                        g2d.setColor(new Color(255,255,255));
+                        g2d.fillRoundRect(x, y, cakeWidth, cakeHeight/2, 14, 14);
+
+                        g2d.setColor(ACCENT_DARK);
+                        for (int i = 0; i < 4; i++) {
+                            g2d.fillOval(x + 12 + i*(cakeWidth/4), y + 10, 8, 8);
+                        }
+                    });
                 }
-            });
+            };
+            private final JLabel name = new JLabel();
+            private final JTextArea desc = new JTextArea();
+            private final JLabel priceLbl = new JLabel();
+            private final JLabel stock = new JLabel();
+
+            ProductCard() {
+                super(new BorderLayout());
+                setBackground(CARD_BG);
+                setBorder(new CompoundBorder(
+                        new LineBorder(BORDER, 1),
+                        new EmptyBorder(12,12,12,12)
+                ));
+
+                // subtle shadow
+                setBorder(new CompoundBorder(
+                        new DropShadowBorder(new Color(200,200,200), 4, 0.25f, 10, false, false, true, true),
+                        getBorder()
+                ));
+
+                // product image
+                imagePanel.setBackground(CARD_BG);
+                imagePanel.setPreferredSize(new Dimension(234, 120));
+                add(imagePanel, BorderLayout.NORTH);
+
+                // details
+                JPanel center = new JPanel(new BorderLayout());
+                center.setBackground(CARD_BG);
+                center.setBorder(new EmptyBorder(10, 8, 10, 8));
+                name.setFont(fontBody.deriveFont(Font.BOLD));
+                name.setForeground(TEXT);
+                center.add(name, BorderLayout.NORTH);
+
+                desc.setLineWrap(true);
+                desc.setWrapStyleWord(true);
+                desc.setEditable(false);
+                desc.setOpaque(false);
+                desc.setFont(fontSmall);
+                desc.setForeground(TEXT_LIGHT);
+                desc.setBorder(new EmptyBorder(6, 0, 6, 0));
+                center.add(desc, BorderLayout.CENTER);
+                add(center, BorderLayout.CENTER);
+
+                // bottom
+                JPanel bottom = new JPanel(new BorderLayout());
+                bottom.setBackground(CARD_BG);
+                bottom.setBorder(new EmptyBorder(6, 0, 0, 0));
+
+                priceLbl.setBorder(new EmptyBorder(6,6,6,6));
+                priceLbl.setFont(fontSubtitle);
+                priceLbl.setForeground(ACCENT_DARK);
+                bottom.add(priceLbl, BorderLayout.WEST);
+
+                JPanel right = new JPanel(new FlowLayout(FlowLayout.RIGHT,6,6));
+                right.setBackground(CARD_BG);
+                stock.setFont(fontSmall);
+                right.add(stock);
+
+                JButton add = styledButton("Add", ACCENT, ACCENT_DARK);
+                add.setPreferredSize(new Dimension(84, 32));
+                right.add(add);
+                bottom.add(right, BorderLayout.EAST);
+
+                add.addActionListener(e -> addToCart(product));
+
+                add(bottom, BorderLayout.SOUTH);
+            }
+
+            void bind(Product p) {
+                product = p;
+                imagePanel.repaint();
+                name.setText("<html><b>" + p.getName() + "</b></html>");
+                desc.setText(p.getDescription());
+                priceLbl.setText(Money.dollars(p.getPriceCents()));
+                stock.setText("Stock: " + p.getStock());
+                stock.setForeground(p.getStock() > 5 ? TEXT_LIGHT : Color.RED);
+            }
+        }
 
-            card.add(bottom, BorderLayout.SOUTH);
-            return card;
+        void addToCart(Product p) {
+            if (p.getStock() <= 0) {
+                JOptionPane.showMessageDialog(frame, "Sorry, this item is out of stock.", "Out of Stock", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            String qtyStr = JOptionPane.showInputDialog(frame, "Quantity to add:", "1");
+            try {
+                int q = Integer.parseInt(qtyStr);
+                if (q <= 0) throw new NumberFormatException();
+                if (q > p.getStock()) {
+                    JOptionPane.showMessageDialog(frame, "Not enough stock. Only " + p.getStock() + " available.");
+                    return;
+                }
+                if (!cart.addItem(p, q)) {
+                    JOptionPane.showMessageDialog(frame, "Not enough stock. Only " + p.getStock() + " available.");
+                    return;
+                }
+                updateCartLabel();
+                JOptionPane.showMessageDialog(frame, "Added to cart: " + q + " x " + p.getName(), "Success", JOptionPane.INFORMATION_MESSAGE);
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(frame, "Please enter a valid quantity.", "Invalid Input", JOptionPane.ERROR_MESSAGE);
+            }
         }
+
         void updateCartLabel() {
-            cartLabel.setText("<html><b>Cart:</b> " + cart.totalItems() + " | $" + MONEY.format(cart.totalPrice()) + "</html>");
+            cartLabel.setText("<html><b>Cart:</b> " + cart.totalItems() + " | $" + Money.format(cart.totalCents()) + "</html>");
         }
 
-        void refresh() {
+        // category names come from the facet index; the renderer appends their live counts
+        void reloadCategories() {
             String prevCat = (String) categoryBox.getSelectedItem();
-            categoryBox.removeAllItems();
-            categoryBox.addItem("");
-            Set<String> cats = new TreeSet<>();
-            for (Product p : productController.listAll()) cats.add(p.getCategory());
-            for (String c : cats) categoryBox.addItem(c);
-            if (prevCat != null) categoryBox.setSelectedItem(prevCat);
-            populateCards(productController.listAll());
-            updateCartLabel();
+            categoryCounts = productController.categoryCounts();
+            reloadingCategories = true;
+            try {
+                categoryBox.removeAllItems();
+                categoryBox.addItem("");
+                for (String c : categoryCounts.keySet()) categoryBox.addItem(c);
+                if (prevCat != null) categoryBox.setSelectedItem(prevCat);
+            } finally {
+                reloadingCategories = false;
+            }
+        }
+
+        // hands the grid only what a batch touches
+        void applyChanges(List<ChangeEvents.Change> batch) {
+            boolean catalogChanged = false;
+            for (ChangeEvents.Change c : batch) {
+                switch (c.kind) {
+                    case PRODUCT_UPDATED:
+                        catalogChanged = true;
+                        grid.productChanged(c.product);
+                        break;
+                    case PRODUCT_ADDED:
+                        catalogChanged = true;
+                        if (showingAll) grid.productAdded(c.product);
+                        break;
+                    case PRODUCT_REMOVED:
+                        catalogChanged = true;
+                        grid.productRemoved(c.id);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (catalogChanged) reloadCategories();
         }
     }
 
     // AdminView: product management + reports
     class AdminView extends JPanel {
+        // products at or below this level are flagged as low stock, matching the red stock label on cards
+        private static final int LOW_STOCK = 5;
         private JTable prodTable;
         private ProductTableModel prodModel;
+        private boolean lowStockOnly = false;
         AdminView(ECommerceApp app) {
             setName("ADMIN");
             setLayout(new BorderLayout(12,12));
@@ -917,6 +3716,7 @@ public class ECommerceApp {
             JButton edit = styledButton("Edit Selected", BUTTON, BUTTON_HOVER);
             JButton remove = styledButton("Remove Selected", BUTTON, BUTTON_HOVER);
             JButton viewOrders = styledButton("View All Orders", BUTTON, BUTTON_HOVER);
+            JButton lowStock = styledButton("Low Stock", BUTTON, BUTTON_HOVER);
             JButton logout = styledButton("Logout", BUTTON, BUTTON_HOVER);
             // JButton backStore = styledButton("Back to Store", BUTTON, BUTTON_HOVER); // HIDDEN
 
@@ -925,10 +3725,11 @@ public class ECommerceApp {
             edit.setPreferredSize(btnSize);
             remove.setPreferredSize(btnSize);
             viewOrders.setPreferredSize(btnSize);
+            lowStock.setPreferredSize(btnSize);
             logout.setPreferredSize(btnSize);
             // backStore.setPreferredSize(btnSize);
 
-            right.add(add); right.add(edit); right.add(remove); right.add(viewOrders);
+            right.add(add); right.add(edit); right.add(remove); right.add(viewOrders); right.add(lowStock);
             // right.add(backStore); // HIDDEN
             right.add(logout);
 
@@ -938,9 +3739,8 @@ public class ECommerceApp {
                 ProductForm pf = new ProductForm(frame, null);
                 pf.setVisible(true);
                 if (pf.saved) {
-                    productController.addProduct(pf.name, pf.desc, pf.price, pf.stock, pf.category);
-                    productController.updateProduct(null);
-                    refresh();
+                    whenDone(add, "Saving...", asyncControllers.addProduct(pf.name, pf.desc, pf.priceCents, pf.stock, pf.category, pf.image),
+                            added -> { }, this::showSaveError);
                 }
             });
             edit.addActionListener(e -> {
@@ -953,10 +3753,8 @@ public class ECommerceApp {
                 ProductForm pf = new ProductForm(frame, p);
                 pf.setVisible(true);
                 if (pf.saved) {
-                    p.setName(pf.name); p.setDescription(pf.desc); p.setPrice(pf.price);
-                    p.setStock(pf.stock); p.setCategory(pf.category);
-                    productController.updateProduct(p);
-                    refresh();
+                    whenDone(edit, "Saving...", asyncControllers.updateProduct(p, pf.name, pf.desc, pf.priceCents, pf.stock, pf.category, pf.image),
+                            updated -> { }, this::showSaveError);
                 }
             });
             remove.addActionListener(e -> {
@@ -970,21 +3768,47 @@ public class ECommerceApp {
                         "Are you sure you want to remove '" + p.getName() + "'?",
                         "Confirm Removal", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
                 if (yn == JOptionPane.YES_OPTION) {
-                    productController.removeProduct(p.getId());
-                    refresh();
+                    whenDone(remove, "Removing...", asyncControllers.removeProduct(p.getId()),
+                            removed -> { }, this::showSaveError);
                 }
             });
             viewOrders.addActionListener(e -> {
                 OrdersAdminDialog dlg = new OrdersAdminDialog(frame, orderController);
                 dlg.setVisible(true);
+            });
+            lowStock.addActionListener(e -> {
+                lowStockOnly = !lowStockOnly;
+                lowStock.setText(lowStockOnly ? "Show All" : "Low Stock");
                 refresh();
             });
             logout.addActionListener(e -> app.logout());
             // backStore.addActionListener(e -> app.showStore()); // HIDDEN
+            ChangeEvents.getInstance().subscribe(this::applyChanges);
+        }
+
+        // the table itself follows ChangeEvents; only failures need reporting here
+        private void showSaveError(Throwable ex) {
+            JOptionPane.showMessageDialog(frame, "Could not save the change: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
 
         void refresh() {
-            prodModel.setProducts(productController.listAll());
+            prodModel.setProducts(lowStockOnly ? productController.lowStock(LOW_STOCK, Integer.MAX_VALUE) : productController.listAll());
+        }
+
+        void applyChanges(List<ChangeEvents.Change> batch) {
+            for (ChangeEvents.Change c : batch) {
+                switch (c.kind) {
+                    case PRODUCT_ADDED:
+                    case PRODUCT_UPDATED:
+                        prodModel.productChanged(c.product, !lowStockOnly || c.product.getStock() <= LOW_STOCK);
+                        break;
+                    case PRODUCT_REMOVED:
+                        prodModel.productRemoved(c.id);
+                        break;
+                    default:
+                        break;
+                }
+            }
         }
     }
 
@@ -992,6 +3816,9 @@ public class ECommerceApp {
     class OrdersView extends JPanel {
         private final JTable table;
         private final OrdersTableModel model;
+        // whose orders the table holds (null until first shown) and whether that is every order
+        private UUID loadedFor;
+        private boolean loadedAll;
         OrdersView(ECommerceApp app) {
             setName("ORDERS");
             setLayout(new BorderLayout());
@@ -1002,7 +3829,7 @@ public class ECommerceApp {
             lbl.setBorder(new EmptyBorder(0,0,15,0));
             add(lbl, BorderLayout.NORTH);
 
-            model = new OrdersTableModel(Collections.emptyList());
+            model = new OrdersTableModel(OrdersTableModel.EMPTY);
             table = new JTable(model);
             table.setRowHeight(28);
             table.setFont(fontBody);
@@ -1027,12 +3854,28 @@ public class ECommerceApp {
             back.addActionListener(e -> {
                 if (currentUser != null && currentUser.getRole() == User.Role.ADMIN) showAdmin(); else showStore();
             });
+            ChangeEvents.getInstance().subscribe(this::applyChanges);
         }
 
+        // reloads only when a different user opens the view; otherwise the table is already current
         void refresh() {
-            if (currentUser == null) return;
-            if (currentUser.getRole() == User.Role.ADMIN) model.setOrders(orderController.getAllOrders());
-            else model.setOrders(orderController.getOrdersForUser(currentUser.getId()));
+            if (currentUser == null || currentUser.getId().equals(loadedFor)) return;
+            loadedFor = currentUser.getId();
+            loadedAll = currentUser.getRole() == User.Role.ADMIN;
+            model.setSource(loadedAll ? allOrders(orderController) : ordersOf(orderController, loadedFor));
+        }
+
+        void applyChanges(List<ChangeEvents.Change> batch) {
+            if (loadedFor == null) return;
+            boolean placed = false;
+            for (ChangeEvents.Change c : batch) {
+                if (c.kind == ChangeEvents.Kind.ORDER_PLACED) {
+                    placed |= loadedAll || c.order.getUserId().equals(loadedFor);
+                } else if (c.kind == ChangeEvents.Kind.ORDER_STATUS) {
+                    model.orderChanged(c.order);
+                }
+            }
+            if (placed) model.ordersPlaced();
         }
     }
 
@@ -1043,13 +3886,14 @@ public class ECommerceApp {
     // ProductForm dialog for admin add/edit
     class ProductForm extends JDialog {
         boolean saved = false;
-        String name, desc, category;
-        double price;
+        String name, desc, category, image;
+        long priceCents;
         int stock;
         JTextField nameF = new JTextField(20);
         JTextField priceF = new JTextField(10);
         JTextField stockF = new JTextField(5);
         JTextField categoryF = new JTextField(10);
+        JTextField imageF = new JTextField(10);
         JTextArea descA = new JTextArea(5,20);
 
         ProductForm(Frame owner, Product p) {
@@ -1071,6 +3915,7 @@ public class ECommerceApp {
             styleTextField(priceF);
             styleTextField(stockF);
             styleTextField(categoryF);
+            styleTextField(imageF);
             descA.setBorder(BorderFactory.createCompoundBorder(
                     BorderFactory.createLineBorder(BORDER, 1),
                     BorderFactory.createEmptyBorder(8, 10, 8, 10)
@@ -1087,6 +3932,8 @@ public class ECommerceApp {
             gbc.gridx = 1; center.add(stockF, gbc);
             gbc.gridx = 0; gbc.gridy++; center.add(new JLabel("Category:"), gbc);
             gbc.gridx = 1; center.add(categoryF, gbc);
+            gbc.gridx = 0; gbc.gridy++; center.add(new JLabel("Image file:"), gbc);
+            gbc.gridx = 1; center.add(imageF, gbc);
             gbc.gridx = 0; gbc.gridy++; center.add(new JLabel("Description:"), gbc);
             gbc.gridx = 1; center.add(new JScrollPane(descA), gbc);
 
@@ -1103,22 +3950,27 @@ public class ECommerceApp {
 
             if (p != null) {
                 nameF.setText(p.getName());
-                priceF.setText(Double.toString(p.getPrice()));
-                stockF.setText(Integer.toString(p.getStock()));
+                priceF.setText(Money.format(p.getPriceCents()));
+                stockF.setText(Integer.toString(p.getCommittedStock())); // what setStock sets; holds stay on top
                 categoryF.setText(p.getCategory());
+                imageF.setText(p.getImage() == null ? "" : p.getImage());
                 descA.setText(p.getDescription());
             }
 
             save.addActionListener(e -> {
                 try {
                     name = nameF.getText().trim();
-                    price = Double.parseDouble(priceF.getText().trim());
+                    priceCents = Money.parse(priceF.getText());
                     stock = Integer.parseInt(stockF.getText().trim());
                     category = categoryF.getText().trim();
+                    image = imageF.getText().trim();
                     desc = descA.getText().trim();
                     if (name.isEmpty()) throw new IllegalArgumentException("Product name is required");
-                    if (price < 0) throw new IllegalArgumentException("Price cannot be negative");
+                    if (priceCents < 0) throw new IllegalArgumentException("Price cannot be negative");
                     if (stock < 0) throw new IllegalArgumentException("Stock cannot be negative");
+                    if (!image.isEmpty() && ImageCache.source(image) == null) {
+                        throw new IllegalArgumentException("Image must be a file inside the " + ImageCache.IMAGE_DIR + " folder");
+                    }
                     saved = true;
                     dispose();
                 } catch (NumberFormatException ex) {
@@ -1137,35 +3989,104 @@ public class ECommerceApp {
     // Cart model for session
     static class Cart {
         private final Map<UUID, CartItem> items = new LinkedHashMap<>();
-
-        void addItem(Product p, int qty) {
+        // optional soft holds on cart stock; null means items are only checked at checkout
+        private final StockReservations reservations;
+
+        Cart() { this(null); }
+        Cart(StockReservations reservations) { this.reservations = reservations; }
+
+        /** Adds qty of p; with reservations on, returns false (and adds nothing) if the units can't be held. */
+        boolean addItem(Product p, int qty) {
+            StockReservations.Hold hold = null;
+            if (reservations != null) {
+                hold = reservations.reserve(p, qty);
+                if (hold == null) return false;
+            }
             CartItem ci = items.get(p.getId());
-            if (ci == null) items.put(p.getId(), new CartItem(p.getId(), p.getName(), p.getPrice(), qty));
-            else ci.quantity += qty;
+            if (ci == null) {
+                ci = new CartItem(p.getId(), p.getName(), p.getPriceCents(), qty);
+                items.put(p.getId(), ci);
+            } else {
+                ci.quantity += qty;
+            }
+            if (hold != null) ci.holds.add(hold);
+            return true;
         }
 
-        void removeItem(UUID pid) { items.remove(pid); }
+        void removeItem(UUID pid) { releaseHolds(items.remove(pid)); }
         void setQty(UUID pid, int qty) {
             CartItem ci = items.get(pid);
             if (ci != null) {
-                if (qty <= 0) items.remove(pid);
-                else ci.quantity = qty;
+                if (qty <= 0) { removeItem(pid); return; }
+                ci.quantity = qty;
+                if (reservations != null && !ci.holds.isEmpty()) {
+                    // re-hold at the new quantity; if that can't be had the rest is checked at checkout
+                    Product p = ci.holds.get(0).product;
+                    releaseHolds(ci);
+                    StockReservations.Hold h = reservations.reserve(p, qty);
+                    if (h != null) ci.holds.add(h);
+                }
             }
         }
         List<CartItem> getItems() { return new ArrayList<>(items.values()); }
-        int totalItems() { return items.values().stream().mapToInt(ci -> ci.quantity).sum(); }
-        double totalPrice() { return items.values().stream().mapToDouble(ci -> ci.price * ci.quantity).sum(); }
-        void clear() { items.clear(); }
+        int totalItems() {
+            int n = 0;
+            for (CartItem ci : items.values()) n += ci.quantity;
+            return n;
+        }
+        long totalCents() {
+            long sum = 0;
+            for (CartItem ci : items.values()) sum = Math.addExact(sum, Money.times(ci.priceCents, ci.quantity));
+            return sum;
+        }
+        void clear() {
+            for (CartItem ci : items.values()) releaseHolds(ci);
+            items.clear();
+        }
+
+        /** Claims every still-live hold for checkout; returns productId -> units held. */
+        Map<UUID, Integer> claimHolds() {
+            Map<UUID, Integer> held = new HashMap<>();
+            if (reservations == null) return held;
+            for (CartItem ci : items.values()) {
+                Iterator<StockReservations.Hold> it = ci.holds.iterator();
+                while (it.hasNext()) {
+                    StockReservations.Hold h = it.next();
+                    if (reservations.claim(h)) held.merge(ci.productId, h.qty, Integer::sum);
+                    else it.remove(); // lapsed
+                }
+            }
+            return held;
+        }
+
+        /** After a successful checkout the claimed units belong to the order. */
+        void checkedOut() { items.clear(); }
+
+        /** After a failed checkout the claimed units go back to stock. */
+        void checkoutFailed() {
+            if (reservations == null) return;
+            for (CartItem ci : items.values()) {
+                for (StockReservations.Hold h : ci.holds) reservations.unclaim(h);
+                ci.holds.clear();
+            }
+        }
+
+        private void releaseHolds(CartItem ci) {
+            if (ci == null || reservations == null) return;
+            for (StockReservations.Hold h : ci.holds) reservations.release(h);
+            ci.holds.clear();
+        }
     }
 
     static class CartItem implements Serializable {
         private static final long serialVersionUID = 1L;
         final UUID productId;
         final String productName;
-        final double price;
+        final long priceCents;
         int quantity;
-        CartItem(UUID pid, String name, double price, int qty) {
-            this.productId = pid; this.productName = name; this.price = price; this.quantity = qty;
+        transient List<StockReservations.Hold> holds = new ArrayList<>(1);
+        CartItem(UUID pid, String name, long priceCents, int qty) {
+            this.productId = pid; this.productName = name; this.priceCents = priceCents; this.quantity = qty;
         }
     }
 
@@ -1183,9 +4104,9 @@ public class ECommerceApp {
             for (int i = 0; i < items.size(); i++) {
                 CartItem it = items.get(i);
                 data[i][0] = it.productName;
-                data[i][1] = "$" + MONEY.format(it.price);
+                data[i][1] = Money.dollars(it.priceCents);
                 data[i][2] = it.quantity;
-                data[i][3] = "$" + MONEY.format(it.price * it.quantity);
+                data[i][3] = Money.dollars(Money.times(it.priceCents, it.quantity));
             }
 
             JTable tbl = new JTable(data, cols);
@@ -1205,7 +4126,7 @@ public class ECommerceApp {
             bottom.setBackground(BG);
             bottom.setBorder(new EmptyBorder(10, 0, 0, 0));
 
-            JLabel totalLbl = new JLabel("<html><b>Total: $" + MONEY.format(cart.totalPrice()) + "</b></html>");
+            JLabel totalLbl = new JLabel("<html><b>Total: $" + Money.format(cart.totalCents()) + "</b></html>");
             totalLbl.setFont(fontSubtitle);
             totalLbl.setForeground(ACCENT_DARK);
             bottom.add(totalLbl, BorderLayout.WEST);
@@ -1236,25 +4157,40 @@ public class ECommerceApp {
                 }
 
                 int ok = JOptionPane.showConfirmDialog(this,
-                        "Confirm order for $" + MONEY.format(cart.totalPrice()) + "?",
+                        "Confirm order for $" + Money.format(cart.totalCents()) + "?",
                         "Confirm Checkout", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
                 if (ok != JOptionPane.YES_OPTION) return;
 
                 List<OrderItem> oitems = new ArrayList<>();
                 for (CartItem ci : cart.getItems()) {
-                    oitems.add(new OrderItem(ci.productId, ci.productName, ci.quantity, ci.price));
+                    oitems.add(new OrderItem(ci.productId, ci.productName, ci.quantity, ci.priceCents));
                 }
-                try {
-                    Order ord = oc.placeOrder(app.getCurrentUser(), oitems);
+                Map<UUID, Integer> held = cart.claimHolds();
+                close.setEnabled(false);
+                whenDone(checkout, "Placing order...", asyncControllers.placeOrder(app.getCurrentUser(), oitems, held), ord -> {
                     JOptionPane.showMessageDialog(this,
-                            "<html><b>Order placed successfully!</b><br>Order ID: " + ord.getId().toString().substring(0, 8) + "...<br>Total: $" + MONEY.format(ord.getTotal()) + "</html>",
+                            "<html><b>Order placed successfully!</b><br>Order ID: " + ord.getId().toString().substring(0, 8) + "...<br>Total: $" + Money.format(ord.getTotalCents()) + "</html>",
                             "Order Confirmed", JOptionPane.INFORMATION_MESSAGE);
-                    cart.clear();
+                    cart.checkedOut();
                     dispose();
                     app.showStore();
-                } catch (IllegalArgumentException ex) {
+                }, ex -> {
+                    if (ex instanceof AsyncControllers.NotDurableException) {
+                        // the order exists and has used the held units; only the save is pending
+                        Order ord = (Order) ((AsyncControllers.NotDurableException) ex).value;
+                        JOptionPane.showMessageDialog(this,
+                                "<html><b>Order placed.</b><br>Order ID: " + ord.getId().toString().substring(0, 8)
+                                        + "...<br>Saving it to disk failed and is being retried.</html>",
+                                "Order Placed", JOptionPane.WARNING_MESSAGE);
+                        cart.checkedOut();
+                        dispose();
+                        app.showStore();
+                        return;
+                    }
+                    close.setEnabled(true);
+                    cart.checkoutFailed();
                     JOptionPane.showMessageDialog(this, "Error placing order: " + ex.getMessage(), "Order Error", JOptionPane.ERROR_MESSAGE);
-                }
+                });
             });
 
             close.addActionListener(e -> dispose());
@@ -1265,13 +4201,16 @@ public class ECommerceApp {
 
     // OrdersAdminDialog: admin view of orders
     class OrdersAdminDialog extends JDialog {
+        private Consumer<List<ChangeEvents.Change>> listener;
+        private final JLabel revenueLbl = new JLabel(" ");
+        private SwingWorker<Long, Void> revenueWorker;
+
         OrdersAdminDialog(Frame owner, OrderController oc) {
             super(owner, "Order Management", true);
             setLayout(new BorderLayout());
             getContentPane().setBackground(BG);
 
-            List<Order> orders = oc.getAllOrders();
-            OrdersTableModel model = new OrdersTableModel(orders);
+            OrdersTableModel model = new OrdersTableModel(allOrders(oc));
             JTable tbl = new JTable(model);
             tbl.setRowHeight(28);
             tbl.setFont(fontBody);
@@ -1293,6 +4232,9 @@ public class ECommerceApp {
             setDelivered.setPreferredSize(new Dimension(140, 36));
             close.setPreferredSize(new Dimension(100, 36));
 
+            revenueLbl.setFont(fontBody.deriveFont(Font.BOLD));
+            revenueLbl.setBorder(new EmptyBorder(0, 0, 0, 20));
+            bottom.add(revenueLbl);
             bottom.add(setShipped);
             bottom.add(setDelivered);
             bottom.add(close);
@@ -1305,9 +4247,9 @@ public class ECommerceApp {
                     return;
                 }
                 Order o = model.getOrderAt(r);
-                oc.updateOrderStatus(o.getId(), Order.Status.SHIPPED);
-                model.setOrders(oc.getAllOrders());
-                JOptionPane.showMessageDialog(this, "Order marked as shipped.", "Status Updated", JOptionPane.INFORMATION_MESSAGE);
+                whenDone(setShipped, "Updating...", asyncControllers.updateOrderStatus(o.getId(), Order.Status.SHIPPED),
+                        id -> JOptionPane.showMessageDialog(this, "Order marked as shipped.", "Status Updated", JOptionPane.INFORMATION_MESSAGE),
+                        ex -> JOptionPane.showMessageDialog(this, "Could not update the order: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
             });
 
             setDelivered.addActionListener(e -> {
@@ -1317,15 +4259,54 @@ public class ECommerceApp {
                     return;
                 }
                 Order o = model.getOrderAt(r);
-                oc.updateOrderStatus(o.getId(), Order.Status.DELIVERED);
-                model.setOrders(oc.getAllOrders());
-                JOptionPane.showMessageDialog(this, "Order marked as delivered.", "Status Updated", JOptionPane.INFORMATION_MESSAGE);
+                whenDone(setDelivered, "Updating...", asyncControllers.updateOrderStatus(o.getId(), Order.Status.DELIVERED),
+                        id -> JOptionPane.showMessageDialog(this, "Order marked as delivered.", "Status Updated", JOptionPane.INFORMATION_MESSAGE),
+                        ex -> JOptionPane.showMessageDialog(this, "Could not update the order: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
             });
 
             close.addActionListener(e -> dispose());
+            listener = batch -> {
+                boolean placed = false, changed = false;
+                for (ChangeEvents.Change c : batch) {
+                    if (c.kind == ChangeEvents.Kind.ORDER_PLACED) placed = true;
+                    else if (c.kind == ChangeEvents.Kind.ORDER_STATUS) model.orderChanged(c.order);
+                    else continue;
+                    changed = true;
+                }
+                if (placed) model.ordersPlaced();
+                if (changed) refreshRevenue(oc);
+            };
+            ChangeEvents.getInstance().subscribe(listener);
+            refreshRevenue(oc);
             setSize(900, 500);
             setLocationRelativeTo(owner);
         }
+
+        // summed off the EDT: it is one pass over every order, a newer refresh cancels this one
+        private void refreshRevenue(OrderController oc) {
+            if (revenueWorker != null) revenueWorker.cancel(false);
+            revenueWorker = new SwingWorker<Long, Void>() {
+                @Override
+                protected Long doInBackground() { return oc.revenueCents(); }
+
+                @Override
+                protected void done() {
+                    if (isCancelled()) return;
+                    try {
+                        revenueLbl.setText("Revenue: " + Money.dollars(get()));
+                    } catch (Exception ex) {
+                        revenueLbl.setText("Revenue: n/a");
+                    }
+                }
+            };
+            revenueWorker.execute();
+        }
+
+        @Override
+        public void dispose() {
+            ChangeEvents.getInstance().unsubscribe(listener);
+            super.dispose();
+        }
     }
 
     // ------------------------
@@ -1333,58 +4314,200 @@ public class ECommerceApp {
 // ------------------------
     static class ProductTableModel extends AbstractTableModel {
         private List<Product> products;
+        // formatted cells per row, built on first paint and dropped when the row changes
+        private List<String[]> cells;
+        // product id -> row, so a change event finds its row without a scan
+        private final Map<UUID, Integer> rows = new HashMap<>();
         private final String[] cols = { "Name", "Category", "Price", "Stock", "Description" };
-        ProductTableModel(List<Product> list) { products = new ArrayList<>(list); }
+        ProductTableModel(List<Product> list) {
+            products = new ArrayList<>(list);
+            cells = new ArrayList<>(Collections.nCopies(products.size(), (String[]) null));
+            reindex(0);
+        }
 
         public void setProducts(List<Product> list) {
             products = new ArrayList<>(list);
+            cells = new ArrayList<>(Collections.nCopies(products.size(), (String[]) null));
+            rows.clear();
+            reindex(0);
             fireTableDataChanged();
         }
 
         public Product getProductAt(int r) { return products.get(r); }
 
+        /** Updates p's row in place, or inserts or drops it according to whether it belongs in the table. */
+        public void productChanged(Product p, boolean belongs) {
+            int r = indexOf(p.getId());
+            if (r >= 0 && belongs) {
+                products.set(r, p);
+                cells.set(r, null);
+                fireTableRowsUpdated(r, r);
+            } else if (r >= 0) {
+                productRemoved(p.getId());
+            } else if (belongs) {
+                rows.put(p.getId(), products.size());
+                products.add(p);
+                cells.add(null);
+                fireTableRowsInserted(products.size() - 1, products.size() - 1);
+            }
+        }
+
+        public void productRemoved(UUID id) {
+            Integer r = rows.remove(id);
+            if (r == null) return;
+            products.remove((int) r);
+            cells.remove((int) r);
+            reindex(r);
+            fireTableRowsDeleted(r, r);
+        }
+
+        private int indexOf(UUID id) {
+            Integer r = rows.get(id);
+            return r == null ? -1 : r;
+        }
+
+        private void reindex(int from) {
+            for (int i = from; i < products.size(); i++) rows.put(products.get(i).getId(), i);
+        }
+
         @Override public int getRowCount() { return products.size(); }
         @Override public int getColumnCount() { return cols.length; }
         @Override public String getColumnName(int c) { return cols[c]; }
         @Override public Object getValueAt(int r, int c) {
-            Product p = products.get(r);
-            switch (c) {
-                case 0: return p.getName();
-                case 1: return p.getCategory();
-                case 2: return "$" + MONEY.format(p.getPrice());
-                case 3: return p.getStock();
-                case 4: return p.getDescription();
-                default: return "";
+            String[] row = cells.get(r);
+            if (row == null) {
+                Product p = products.get(r);
+                row = new String[] { p.getName(), p.getCategory(), Money.dollars(p.getPriceCents()),
+                        Integer.toString(p.getCommittedStock()), p.getDescription() };
+                cells.set(r, row);
             }
+            return c < row.length ? row[c] : "";
         }
     }
 
+    // order table sources backed by the controller's paged queries
+    static OrdersTableModel.Source allOrders(OrderController oc) {
+        return new OrdersTableModel.Source() {
+            @Override public int count() { return oc.countOrders(); }
+            @Override public List<Order> page(int offset, int limit) { return oc.getRecentOrders(offset, limit); }
+        };
+    }
+
+    static OrdersTableModel.Source ordersOf(OrderController oc, UUID userId) {
+        return new OrdersTableModel.Source() {
+            @Override public int count() { return oc.countOrdersForUser(userId); }
+            @Override public List<Order> page(int offset, int limit) { return oc.getRecentOrdersForUser(userId, offset, limit); }
+        };
+    }
+
+    /**
+     * OrdersTableModel: a newest-first window onto an order list that can run to hundreds of thousands
+     * of rows. Only the row count is known up front; rows are fetched a page at a time from the
+     * source when the table first paints them, and a few recent pages are kept.
+     */
     static class OrdersTableModel extends AbstractTableModel {
-        private List<Order> orders;
+        interface Source {
+            int count();
+            /** Orders newest first; offset 0 is the most recent. */
+            List<Order> page(int offset, int limit);
+        }
+
+        static final Source EMPTY = new Source() {
+            @Override public int count() { return 0; }
+            @Override public List<Order> page(int offset, int limit) { return Collections.emptyList(); }
+        };
+
+        private static final int PAGE_SIZE = 200;
+        private static final int MAX_PAGES = 8;
+
+        // a fetched page and its formatted cells, built per row on first paint
+        private static final class Page {
+            final List<Order> orders;
+            final String[][] cells;
+            Page(List<Order> orders) { this.orders = orders; this.cells = new String[orders.size()][]; }
+        }
+
+        private Source source;
+        private int rowCount;
+        private final Map<Integer, Page> pages = new LinkedHashMap<Integer, Page>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                return size() > MAX_PAGES;
+            }
+        };
         private final String[] cols = { "Order ID", "User ID", "Created", "Items", "Total", "Status" };
-        OrdersTableModel(List<Order> list) { orders = new ArrayList<>(list); }
 
-        public void setOrders(List<Order> list) {
-            orders = new ArrayList<>(list);
+        OrdersTableModel(Source source) {
+            this.source = source;
+            this.rowCount = source.count();
+        }
+
+        public void setSource(Source s) {
+            source = s;
+            pages.clear();
+            rowCount = s.count();
             fireTableDataChanged();
         }
 
-        public Order getOrderAt(int r) { return orders.get(r); }
+        public Order getOrderAt(int r) {
+            Page page = page(r);
+            int i = r % PAGE_SIZE;
+            return i < page.orders.size() ? page.orders.get(i) : null;
+        }
+
+        private Page page(int r) {
+            Page page = pages.get(r / PAGE_SIZE);
+            if (page == null) {
+                page = new Page(source.page(r / PAGE_SIZE * PAGE_SIZE, PAGE_SIZE));
+                pages.put(r / PAGE_SIZE, page);
+            }
+            return page;
+        }
+
+        /** New orders land on top; the cached pages have all shifted, so they are dropped. */
+        public void ordersPlaced() {
+            int before = rowCount;
+            rowCount = source.count();
+            if (rowCount <= before) return;
+            pages.clear();
+            fireTableRowsInserted(0, rowCount - before - 1);
+        }
+
+        /** Repaints o's row if it is in a cached page; rows not fetched yet will read the new state anyway. */
+        public void orderChanged(Order o) {
+            for (Map.Entry<Integer, Page> e : pages.entrySet()) {
+                Page page = e.getValue();
+                for (int i = 0; i < page.orders.size(); i++) {
+                    if (page.orders.get(i).getId().equals(o.getId())) {
+                        page.cells[i] = null;
+                        int r = e.getKey() * PAGE_SIZE + i;
+                        fireTableRowsUpdated(r, r);
+                        return;
+                    }
+                }
+            }
+        }
 
-        @Override public int getRowCount() { return orders.size(); }
+        @Override public int getRowCount() { return rowCount; }
         @Override public int getColumnCount() { return cols.length; }
         @Override public String getColumnName(int c) { return cols[c]; }
         @Override public Object getValueAt(int r, int c) {
-            Order o = orders.get(r);
-            switch (c) {
-                case 0: return o.getId().toString().substring(0, 8) + "...";
-                case 1: return o.getUserId().toString().substring(0, 8) + "...";
-                case 2: return o.getCreatedAt().toString().replace("T", " ");
-                case 3: return o.getItems().size();
-                case 4: return "$" + MONEY.format(o.getTotal());
-                case 5: return o.getStatus().toString();
-                default: return "";
+            Page page = page(r);
+            int i = r % PAGE_SIZE;
+            if (i >= page.orders.size()) return "";
+            String[] row = page.cells[i];
+            if (row == null) {
+                Order o = page.orders.get(i);
+                row = new String[] {
+                        o.getId().toString().substring(0, 8) + "...",
+                        o.getUserId().toString().substring(0, 8) + "...",
+                        o.getCreatedAt().toString().replace("T", " "),
+                        Integer.toString(o.getItems().size()),
+                        Money.dollars(o.getTotalCents()),
+                        o.getStatus().toString() };
+                page.cells[i] = row;
             }
+            return c < row.length ? row[c] : "";
         }
     }
 
@@ -1394,22 +4517,16 @@ public class ECommerceApp {
 
     // Styled button with hover effect (modern: accent buttons have white foreground)
     private JButton styledButton(String text, Color bg, Color hoverBg) {
+        Color pressedBg = hoverBg.darker();
         JButton b = new JButton(text) {
             @Override
             protected void paintComponent(Graphics g) {
-                Graphics2D g2 = (Graphics2D) g.create();
-                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-                if (getModel().isPressed()) {
-                    g2.setColor(hoverBg.darker());
-                } else if (getModel().isRollover()) {
-                    g2.setColor(hoverBg);
-                } else {
-                    g2.setColor(bg);
-                }
-
-                g2.fillRoundRect(0, 0, getWidth(), getHeight(), 14, 14);
-                g2.dispose();
+                Color fill = getModel().isPressed() ? pressedBg : getModel().isRollover() ? hoverBg : bg;
+                PaintCache.draw(g, 0, 0, getWidth(), getHeight(), PaintCache.BUTTON, fill.getRGB(), 14,
+                        (g2, w, h) -> {
+                            g2.setColor(fill);
+                            g2.fillRoundRect(0, 0, w, h, 14, 14);
+                        });
 
                 super.paintComponent(g);
             }
@@ -1427,6 +4544,26 @@ public class ECommerceApp {
         return b;
     }
 
+    /**
+     * Shows progress on the button that started an async action, with the button disabled, busy text
+     * and a wait cursor, then restores it and hands the result or the failure's cause to the EDT.
+     */
+    private <T> void whenDone(JButton source, String busyText, CompletableFuture<T> future,
+                              Consumer<T> done, Consumer<Throwable> failed) {
+        String text = source.getText();
+        Window window = SwingUtilities.getWindowAncestor(source);
+        source.setEnabled(false);
+        source.setText(busyText);
+        if (window != null) window.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        future.whenComplete((value, ex) -> SwingUtilities.invokeLater(() -> {
+            source.setText(text);
+            source.setEnabled(true);
+            if (window != null) window.setCursor(Cursor.getDefaultCursor());
+            if (ex == null) done.accept(value);
+            else failed.accept(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+        }));
+    }
+
     // Overload for default button style
     private JButton styledButton(String text) {
         return styledButton(text, BUTTON, BUTTON_HOVER);
@@ -1451,60 +4588,276 @@ public class ECommerceApp {
     }
 
     /**
-     * WrapLayout: FlowLayout that wraps components to a new row when necessary.
+     * Money: amounts are longs holding whole cents, so sums and line totals are exact integer
+     * arithmetic with nothing boxed. Overflow throws rather than wrapping. Text is built by appending
+     * digits straight into a StringBuilder, so formatting keeps no shared state (unlike DecimalFormat
+     * it is safe off the EDT) and append() allocates nothing. Doubles only appear at the edges:
+     * dollar values in pre-cents data files and typed-in prices.
      */
-    static class WrapLayout extends FlowLayout {
-        public WrapLayout() { super(); }
-        public WrapLayout(int align, int hgap, int vgap) { super(align, hgap, vgap); }
+    static final class Money {
+        /** Dollars to cents, rounding half up on the decimal the double prints as (0.285 is 29, not 28). */
+        static long toCents(double dollars) {
+            return BigDecimal.valueOf(dollars).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+        }
 
-        @Override
-        public Dimension preferredLayoutSize(Container target) {
-            return layoutSize(target, true);
+        /** Parses typed dollars such as "12", "12.5" or "$12.50"; throws NumberFormatException if it isn't one. */
+        static long parse(String text) {
+            String s = text.trim();
+            if (s.startsWith("$")) s = s.substring(1).trim();
+            try {
+                return new BigDecimal(s).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+            } catch (ArithmeticException e) {
+                throw new NumberFormatException("Amount out of range: " + text);
+            }
         }
 
-        @Override
-        public Dimension minimumLayoutSize(Container target) {
-            Dimension d = layoutSize(target, false);
-            d.width -= (getHgap() + 1);
-            return d;
-        }
-
-        private Dimension layoutSize(Container target, boolean preferred) {
-            synchronized (target.getTreeLock()) {
-                int targetWidth = target.getWidth();
-                if (targetWidth == 0) targetWidth = Integer.MAX_VALUE;
-                Insets insets = target.getInsets();
-                int hgap = getHgap(), vgap = getVgap();
-                int maxWidth = targetWidth - (insets.left + insets.right + hgap*2);
-
-                Dimension dim = new Dimension(0, 0);
-                int rowWidth = 0, rowHeight = 0;
-
-                for (int i = 0; i < target.getComponentCount(); i++) {
-                    Component m = target.getComponent(i);
-                    if (!m.isVisible()) continue;
-                    Dimension d = preferred ? m.getPreferredSize() : m.getMinimumSize();
-                    if (rowWidth + d.width > maxWidth) {
-                        addRow(dim, rowWidth, rowHeight);
-                        rowWidth = 0; rowHeight = 0;
-                    }
-                    if (rowWidth != 0) rowWidth += hgap;
-                    rowWidth += d.width;
-                    rowHeight = Math.max(rowHeight, d.height);
+        /** Line total: unit price times quantity. */
+        static long times(long cents, int qty) { return Math.multiplyExact(cents, (long) qty); }
+
+        /** Exact decimal for JSON output, e.g. 1250 -> 12.50. */
+        static BigDecimal decimal(long cents) { return BigDecimal.valueOf(cents, 2); }
+
+        static StringBuilder append(StringBuilder sb, long cents) {
+            if (cents < 0) {
+                sb.append('-');
+                cents = -cents;
+            }
+            long c = cents % 100;
+            sb.append(cents / 100).append('.');
+            if (c < 10) sb.append('0');
+            return sb.append(c);
+        }
+
+        static String format(long cents) { return append(new StringBuilder(16), cents).toString(); }
+        static String dollars(long cents) { return append(new StringBuilder(16).append('$'), cents).toString(); }
+    }
+
+    /**
+     * ImageCache: product thumbnails, decoded and downscaled on a small background pool and held in
+     * an LRU bounded by bytes. Decoding subsamples while reading, so a large photo is never held at
+     * full size, and finished thumbnails are also written to a disk cache next to the images so the
+     * next start skips the decode. Callers get null until a thumbnail is ready and are repainted
+     * when it arrives; the EDT never touches the disk.
+     */
+    static final class ImageCache {
+        static final File IMAGE_DIR = new File(System.getProperty("shop.imageDir", "images"));
+        private static final long MAX_BYTES = Long.getLong("shop.thumbCacheMB", 32) << 20;
+        private static final boolean DISK_CACHE = Boolean.parseBoolean(System.getProperty("shop.thumbDiskCache", "true"));
+        private static final File DISK_DIR = new File(IMAGE_DIR, ".thumbs");
+        // stands in for images that are missing or unreadable so they aren't retried on every paint
+        private static final BufferedImage MISSING = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        private static ImageCache instance;
+
+        private final Map<String, BufferedImage> thumbs = new LinkedHashMap<>(256, 0.75f, true);
+        private long bytes;
+        // key -> components to repaint when that thumbnail lands
+        private final Map<String, List<Component>> loading = new HashMap<>();
+        private final ExecutorService pool;
+
+        private ImageCache() {
+            int workers = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+            // newest request first: while scrolling, the cards now on screen load before the ones scrolled past
+            BlockingQueue<Runnable> lifo = new LinkedBlockingDeque<Runnable>() {
+                @Override public boolean offer(Runnable r) { return offerFirst(r); }
+            };
+            pool = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS, lifo, r -> {
+                Thread t = new Thread(r, "thumbnail-loader");
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            });
+        }
+
+        public static synchronized ImageCache getInstance() {
+            if (instance == null) instance = new ImageCache();
+            return instance;
+        }
+
+        /** The w x h thumbnail for image, or null while it loads (requester is repainted when it is ready) or if there is none. */
+        BufferedImage thumbnail(String image, int w, int h, Component requester) {
+            if (image == null || w <= 0 || h <= 0) return null;
+            String key = image + '@' + w + 'x' + h;
+            synchronized (this) {
+                BufferedImage img = thumbs.get(key);
+                if (img != null) return img == MISSING ? null : img;
+                List<Component> waiting = loading.get(key);
+                if (waiting != null) {
+                    if (!waiting.contains(requester)) waiting.add(requester);
+                    return null;
+                }
+                waiting = new ArrayList<>(2);
+                waiting.add(requester);
+                loading.put(key, waiting);
+            }
+            pool.execute(() -> load(key, image, w, h));
+            return null;
+        }
+
+        private void load(String key, String image, int w, int h) {
+            BufferedImage img;
+            try {
+                img = loadThumbnail(image, w, h);
+            } catch (IOException | RuntimeException e) {
+                img = null;
+            }
+            List<Component> waiting;
+            synchronized (this) {
+                put(key, img == null ? MISSING : img);
+                waiting = loading.remove(key);
+            }
+            for (Component c : waiting) c.repaint();
+        }
+
+        // caller holds this
+        private void put(String key, BufferedImage img) {
+            BufferedImage old = thumbs.put(key, img);
+            if (old != null) bytes -= sizeOf(old);
+            bytes += sizeOf(img);
+            Iterator<BufferedImage> it = thumbs.values().iterator();
+            while (bytes > MAX_BYTES && it.hasNext()) {
+                bytes -= sizeOf(it.next());
+                it.remove();
+            }
+        }
+
+        // a digest of the name, so distinct names never share a cached thumbnail the way "a/b" and "a_b" would
+        private static String cacheName(String image) {
+            try {
+                byte[] d = MessageDigest.getInstance("SHA-256").digest(image.getBytes(StandardCharsets.UTF_8));
+                StringBuilder sb = new StringBuilder(40);
+                for (int i = 0; i < 20; i++) sb.append(Character.forDigit((d[i] >> 4) & 0xF, 16)).append(Character.forDigit(d[i] & 0xF, 16));
+                return sb.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e); // every JRE ships SHA-256
+            }
+        }
+
+        private static long sizeOf(BufferedImage img) {
+            return (long) img.getWidth() * img.getHeight() * 4;
+        }
+
+        /** The file image names inside IMAGE_DIR, or null if the name reaches outside it (e.g. "../x"). */
+        static File source(String image) throws IOException {
+            File dir = IMAGE_DIR.getCanonicalFile();
+            File f = new File(dir, image).getCanonicalFile();
+            return f.toPath().startsWith(dir.toPath()) && !f.equals(dir) ? f : null;
+        }
+
+        private BufferedImage loadThumbnail(String image, int w, int h) throws IOException {
+            File src = source(image);
+            if (src == null || !src.isFile()) return null;
+            File cached = new File(DISK_DIR, cacheName(image) + "-" + w + "x" + h + ".png");
+            if (DISK_CACHE && cached.isFile() && cached.lastModified() >= src.lastModified()) {
+                BufferedImage img = ImageIO.read(cached);
+                if (img != null) return img;
+            }
+            BufferedImage thumb = decode(src, w, h);
+            if (thumb != null && DISK_CACHE) {
+                try {
+                    DISK_DIR.mkdirs();
+                    ImageIO.write(thumb, "png", cached);
+                } catch (IOException e) {
+                    // the disk cache is best effort
                 }
-                addRow(dim, rowWidth, rowHeight);
-                dim.width += insets.left + insets.right + hgap*2;
-                dim.height += insets.top + insets.bottom + vgap*2;
-                return dim;
             }
+            return thumb;
         }
 
-        private void addRow(Dimension dim, int rowWidth, int rowHeight) {
-            if (rowWidth > 0) {
-                dim.width = Math.max(dim.width, rowWidth);
-                if (dim.height > 0) dim.height += getVgap();
-                dim.height += rowHeight;
+        private static BufferedImage decode(File src, int w, int h) throws IOException {
+            try (ImageInputStream in = ImageIO.createImageInputStream(src)) {
+                if (in == null) return null;
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+                if (!readers.hasNext()) return null;
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(in, true, true);
+                    int sw = reader.getWidth(0), sh = reader.getHeight(0);
+                    // subsample while decoding, keeping at least the target resolution for the final smooth scale
+                    int step = Math.max(1, Math.min(sw / w, sh / h));
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(step, step, 0, 0);
+                    return fit(reader.read(0, param), w, h);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+
+        // scales img to fit inside w x h, centred on a transparent background
+        private static BufferedImage fit(BufferedImage img, int w, int h) {
+            double scale = Math.min(w / (double) img.getWidth(), h / (double) img.getHeight());
+            int dw = Math.max(1, (int) Math.round(img.getWidth() * scale));
+            int dh = Math.max(1, (int) Math.round(img.getHeight() * scale));
+            BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g = out.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(img, (w - dw) / 2, (h - dh) / 2, dw, dh, null);
+            g.dispose();
+            return out;
+        }
+    }
+
+    /**
+     * PaintCache: antialiased decorations (button fills, card shadows) rendered once per size, colour
+     * and device scale, so repainting them is a single image blit. Cards and buttons come in a handful
+     * of sizes, so a small LRU covers a whole grid. EDT only.
+     */
+    static final class PaintCache {
+        static final int BUTTON = 1, SHADOW = 2, PLACEHOLDER = 3;
+        private static final int MAX_ENTRIES = 128;
+        private static final Map<Key, Image> IMAGES = new LinkedHashMap<Key, Image>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Image> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+        interface Painter { void paint(Graphics2D g, int w, int h); }
+
+        private static final class Key {
+            final int kind, color, shape, w, h, scale;
+
+            Key(int kind, int color, int shape, int w, int h, int scale) {
+                this.kind = kind; this.color = color; this.shape = shape; this.w = w; this.h = h; this.scale = scale;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Key)) return false;
+                Key k = (Key) o;
+                return kind == k.kind && color == k.color && shape == k.shape && w == k.w && h == k.h && scale == k.scale;
+            }
+
+            @Override
+            public int hashCode() {
+                return ((((kind * 31 + color) * 31 + shape) * 31 + w) * 31 + h) * 31 + scale;
+            }
+        }
+
+        /** Blits the decoration for (kind, color, shape) at w x h, asking painter to render it on first use. */
+        static void draw(Graphics g, int x, int y, int w, int h, int kind, int color, int shape, Painter painter) {
+            if (w <= 0 || h <= 0) return;
+            Graphics2D g2 = (Graphics2D) g;
+            // render at device resolution so HiDPI screens don't get an upscaled blur
+            double scale = Math.max(1, g2.getTransform().getScaleX());
+            Key key = new Key(kind, color, shape, w, h, (int) Math.round(scale * 100));
+            Image img = IMAGES.get(key);
+            if (img == null) {
+                int iw = (int) Math.ceil(w * scale), ih = (int) Math.ceil(h * scale);
+                GraphicsConfiguration gc = g2.getDeviceConfiguration();
+                BufferedImage buf = gc != null ? gc.createCompatibleImage(iw, ih, Transparency.TRANSLUCENT)
+                        : new BufferedImage(iw, ih, BufferedImage.TYPE_INT_ARGB_PRE);
+                Graphics2D ig = buf.createGraphics();
+                ig.scale(iw / (double) w, ih / (double) h);
+                ig.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                painter.paint(ig, w, h);
+                ig.dispose();
+                img = buf;
+                IMAGES.put(key, img);
             }
+            if (key.scale == 100) g2.drawImage(img, x, y, null);
+            else g2.drawImage(img, x, y, w, h, null);
         }
     }
 
@@ -1520,6 +4873,8 @@ public class ECommerceApp {
         private final boolean showLeftShadow;
         private final boolean showBottomShadow;
         private final boolean showRightShadow;
+        private final Color shadow;
+        private final PaintCache.Painter strip;
 
         public DropShadowBorder(Color shadowColor, int shadowSize, float shadowOpacity,
                                 int cornerSize, boolean showTopShadow, boolean showLeftShadow,
@@ -1532,25 +4887,26 @@ public class ECommerceApp {
             this.showLeftShadow = showLeftShadow;
             this.showBottomShadow = showBottomShadow;
             this.showRightShadow = showRightShadow;
+            this.shadow = new Color(shadowColor.getRed(), shadowColor.getGreen(), shadowColor.getBlue(),
+                    (int)(255 * shadowOpacity));
+            this.strip = (g2, w, h) -> {
+                g2.setColor(shadow);
+                g2.fillRoundRect(0, 0, w, h, cornerSize, cornerSize);
+            };
         }
 
+        // each shadow is a cached strip image, so only its own few pixels are composited;
+        // the half that falls outside the component is clipped as before
         @Override
         public void paintBorder(Component c, Graphics g, int x, int y, int width, int height) {
-            Graphics2D g2 = (Graphics2D) g.create();
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-            Color shadow = new Color(shadowColor.getRed(), shadowColor.getGreen(), shadowColor.getBlue(),
-                    (int)(255 * shadowOpacity));
-            g2.setColor(shadow);
-
             if (showBottomShadow) {
-                g2.fillRoundRect(x + shadowSize, y + height - shadowSize/2, width - shadowSize * 2, shadowSize, cornerSize, cornerSize);
+                PaintCache.draw(g, x + shadowSize, y + height - shadowSize/2, width - shadowSize * 2, shadowSize,
+                        PaintCache.SHADOW, shadow.getRGB(), cornerSize, strip);
             }
             if (showRightShadow) {
-                g2.fillRoundRect(x + width - shadowSize/2, y + shadowSize, shadowSize, height - shadowSize * 2, cornerSize, cornerSize);
+                PaintCache.draw(g, x + width - shadowSize/2, y + shadowSize, shadowSize, height - shadowSize * 2,
+                        PaintCache.SHADOW, shadow.getRGB(), cornerSize, strip);
             }
-
-            g2.dispose();
         }
 
         @Override
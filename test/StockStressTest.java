@@ -0,0 +1,93 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * StockStressTest: many threads check out the same hot SKU at once and the shop must sell exactly
+ * its starting stock, never more. Every order also takes one unit of a plentiful second product,
+ * so an order that loses the race on the hot SKU has to hand that unit back.
+ *
+ * Run it from an empty scratch directory, because it creates its own data files there:
+ *   javac -d out src/ECommerceApp.java test/StockStressTest.java
+ *   java -Djava.awt.headless=true -cp out StockStressTest [threads] [ordersPerThread]
+ * It exits with status 1 if an invariant does not hold.
+ */
+public class StockStressTest {
+    private static final int HOT_STOCK = 500;
+    private static final int COLD_STOCK = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        ECommerceApp.ProductController products = new ECommerceApp.ProductController();
+        ECommerceApp.OrderController orders = new ECommerceApp.OrderController();
+        ECommerceApp.User user = new ECommerceApp.AuthController()
+                .register("Stress", "stress-" + UUID.randomUUID() + "@example.com", "pass", ECommerceApp.User.Role.CUSTOMER);
+        ECommerceApp.Product hot = products.addProduct("Hot SKU", "stress test", 100, HOT_STOCK, "Stress");
+        ECommerceApp.Product cold = products.addProduct("Cold SKU", "stress test", 100, COLD_STOCK, "Stress");
+
+        AtomicInteger placed = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    List<ECommerceApp.OrderItem> items = Arrays.asList(
+                            new ECommerceApp.OrderItem(cold.getId(), cold.getName(), 1, cold.getPriceCents()),
+                            new ECommerceApp.OrderItem(hot.getId(), hot.getName(), 1 + i % 3, hot.getPriceCents()));
+                    try {
+                        orders.placeOrder(user, items);
+                        placed.incrementAndGet();
+                    } catch (IllegalArgumentException soldOut) {
+                        rejected.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : workers) f.get();
+        pool.shutdown();
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+
+        int hotSold = 0;
+        int coldSold = 0;
+        int userOrders = 0;
+        for (ECommerceApp.Order o : orders.getOrdersForUser(user.getId())) {
+            userOrders++;
+            for (ECommerceApp.OrderItem it : o.getItems()) {
+                if (it.productId.equals(hot.getId())) hotSold += it.quantity;
+                if (it.productId.equals(cold.getId())) coldSold += it.quantity;
+            }
+        }
+        ECommerceApp.DataStore.getInstance().whenDurable().join();
+
+        System.out.println(threads + " threads x " + perThread + " checkouts in " + ms + " ms: "
+                + placed + " placed, " + rejected + " rejected, " + hotSold + " hot units sold");
+        List<String> failures = new ArrayList<>();
+        check(failures, hotSold == HOT_STOCK, "hot units sold " + hotSold + ", expected exactly " + HOT_STOCK);
+        check(failures, hot.getStock() == 0, "hot available " + hot.getStock() + ", expected 0");
+        check(failures, hot.getCommittedStock() == 0, "hot committed stock " + hot.getCommittedStock() + ", expected 0");
+        check(failures, userOrders == placed.get(), userOrders + " orders recorded, " + placed + " reported placed");
+        check(failures, coldSold == placed.get(), "cold units sold " + coldSold + ", expected one per order (" + placed + ")");
+        check(failures, cold.getStock() == COLD_STOCK - coldSold, "cold available " + cold.getStock()
+                + ", expected " + (COLD_STOCK - coldSold) + " (a rejected order kept its cold unit)");
+        check(failures, placed.get() + rejected.get() == threads * perThread, "lost checkouts");
+
+        if (!failures.isEmpty()) {
+            for (String f : failures) System.err.println("FAIL: " + f);
+            System.exit(1);
+        }
+        System.out.println("OK");
+        System.exit(0);
+    }
+
+    private static void check(List<String> failures, boolean ok, String message) {
+        if (!ok) failures.add(message);
+    }
+}